@@ -0,0 +1,58 @@
+package com.bytezone.dm3270.benchmarks;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.display.Pen;
+import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.streams.TelnetState;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Screens shared by the benchmarks, so they all measure the same kind of content.
+ */
+final class BenchmarkScreens {
+
+  private static final byte PROTECTED = 0x60;
+  private static final byte UNPROTECTED = 0x40;
+
+  private BenchmarkScreens() {
+  }
+
+  static Screen newScreen(ScreenDimensions screenDimensions) {
+    Charset.CP1047.load();
+    return new Screen(screenDimensions, null, new TelnetState(), Charset.CP1047);
+  }
+
+  // ISPF like panel where every row has a protected label followed by an input field
+  static Screen formScreen(ScreenDimensions screenDimensions) {
+    Screen screen = newScreen(screenDimensions);
+    Pen pen = screen.getPen();
+    pen.clearScreen();
+
+    for (int row = 0; row < screenDimensions.rows; row++) {
+      pen.moveTo(row * screenDimensions.columns);
+      pen.startField(new StartFieldAttribute(PROTECTED));
+      write(pen, String.format(" Label %02d ===>", row));
+      pen.startField(new StartFieldAttribute(UNPROTECTED));
+      write(pen, "value");
+      pen.moveTo(row * screenDimensions.columns + 60);
+      pen.startField(new StartFieldAttribute(PROTECTED));
+      write(pen, "help");
+    }
+
+    screen.buildFields();
+    return screen;
+  }
+
+  private static void write(Pen pen, String text) {
+    try {
+      for (byte b : text.getBytes(Charset.CP1047.name())) {
+        pen.write(b);
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+package com.bytezone.dm3270.benchmarks;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.orders.Order;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast the write commands recorded in the wiresham flows of the tests are split
+ * into orders.
+ * <p>
+ * {@code scanOrderValues} is the nested loop over {@link Order#orderValues} formerly used by
+ * TextOrder, {@code scanOrderTable} the lookup table that replaced it, and {@code parseOrders}
+ * builds the orders like WriteCommand does. The {@code bytes} secondary result is the parse
+ * throughput in bytes per second, divide it by 10^6 to get MB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderScanBenchmark {
+
+  private static final byte IAC = (byte) 0xFF;
+  private static final byte EOR = (byte) 0xEF;
+  private static final int TN3270E_HEADER_LENGTH = 5;
+
+  @State(Scope.Benchmark)
+  public static class Records {
+
+    // orders of every write command, without the command and WCC bytes
+    private final List<byte[]> orders = new ArrayList<>();
+    private long size;
+
+    @Setup
+    public void setup() throws IOException {
+      Charset.CP1047.load();
+      for (String flow : RecordedFlows.NAMES) {
+        for (byte[] packet : RecordedFlows.load(flow).getServerPackets()) {
+          addWriteCommands(packet);
+        }
+      }
+      for (byte[] record : orders) {
+        size += record.length;
+      }
+    }
+
+    private void addWriteCommands(byte[] packet) {
+      ByteArrayOutputStream record = new ByteArrayOutputStream();
+      for (int i = 0; i < packet.length; i++) {
+        if (packet[i] == IAC && i + 1 < packet.length) {
+          byte next = packet[++i];
+          if (next == EOR) {
+            addWriteCommand(record.toByteArray());
+            record.reset();
+            continue;
+          }
+          if (next != IAC) {
+            record.reset();           // a telnet command, not a 3270 record
+            continue;
+          }
+        }
+        record.write(packet[i]);
+      }
+    }
+
+    private void addWriteCommand(byte[] record) {
+      int offset = isWriteCommand(record, 0) ? 0 : TN3270E_HEADER_LENGTH;
+      if (isWriteCommand(record, offset) && record.length > offset + 2) {
+        byte[] command = new byte[record.length - offset - 2];
+        System.arraycopy(record, offset + 2, command, 0, command.length);
+        orders.add(command);
+      }
+    }
+
+    private static boolean isWriteCommand(byte[] record, int offset) {
+      if (record.length <= offset) {
+        return false;
+      }
+      switch (record[offset]) {
+        case 0x01:
+        case (byte) 0xF1:
+        case 0x05:
+        case (byte) 0xF5:
+        case 0x0D:
+        case 0x7E:
+          return true;
+        default:
+          return false;
+      }
+    }
+
+  }
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Throughput {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+
+  }
+
+  @Benchmark
+  public int scanOrderValues(Records records, Throughput throughput) {
+    int count = 0;
+    for (byte[] record : records.orders) {
+      for (byte value : record) {
+        for (byte orderValue : Order.orderValues) {
+          if (value == orderValue) {
+            count++;
+            break;
+          }
+        }
+      }
+    }
+    throughput.bytes += records.size;
+    return count;
+  }
+
+  @Benchmark
+  public int scanOrderTable(Records records, Throughput throughput) {
+    int count = 0;
+    for (byte[] record : records.orders) {
+      for (byte value : record) {
+        if (Order.isOrder(value)) {
+          count++;
+        }
+      }
+    }
+    throughput.bytes += records.size;
+    return count;
+  }
+
+  @Benchmark
+  public int parseOrders(Records records, Throughput throughput) {
+    int count = 0;
+    for (byte[] record : records.orders) {
+      int ptr = 0;
+      while (ptr < record.length) {
+        ptr += Order.getOrder(record, ptr, record.length, Charset.CP1047).size();
+        count++;
+      }
+    }
+    throughput.bytes += records.size;
+    return count;
+  }
+
+}
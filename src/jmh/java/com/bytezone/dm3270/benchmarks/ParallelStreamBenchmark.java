@@ -0,0 +1,92 @@
+package com.bytezone.dm3270.benchmarks;
+
+import com.bytezone.dm3270.display.Field;
+import com.bytezone.dm3270.display.FieldManager;
+import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the parallel streams formerly used to scan the fields of a screen with the
+ * sequential loops that replaced them.
+ * <p>
+ * Every benchmark thread plays the role of a session with its own screen, so the sample time
+ * percentiles show how sessions delay each other when they share the common ForkJoinPool. Use
+ * {@code -t} to try other numbers of concurrent sessions.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class ParallelStreamBenchmark {
+
+  private static final String SPLIT_LINE = ".  .  .  .  .  .  .  .  .  .  .  .  .  "
+      + ".  .  .  .  .  .  .  .  .  .  .  .  .  .";
+
+  @State(Scope.Thread)
+  public static class Session {
+
+    private FieldManager fieldManager;
+    private int columns;
+
+    @Setup
+    public void setup() {
+      ScreenDimensions screenDimensions = new ScreenDimensions(24, 80);
+      Screen screen = BenchmarkScreens.formScreen(screenDimensions);
+      fieldManager = screen.getFieldManager();
+      columns = screenDimensions.columns;
+    }
+
+  }
+
+  @Benchmark
+  public boolean splitScreenParallel(Session session) {
+    return session.fieldManager.getFields().parallelStream()
+        .anyMatch(f -> isSplitLine(f, session.columns));
+  }
+
+  @Benchmark
+  public boolean splitScreenSequential(Session session) {
+    List<Field> fields = session.fieldManager.getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      if (isSplitLine(fields.get(i), session.columns)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Benchmark
+  public Optional<Field> eraseAllUnprotectedParallel(Session session) {
+    List<Field> unprotectedFields = session.fieldManager.getUnprotectedFields();
+    unprotectedFields.parallelStream().forEach(f -> f.clearData(true));
+    return unprotectedFields.stream().findFirst();
+  }
+
+  @Benchmark
+  public Optional<Field> eraseAllUnprotected(Session session) {
+    return session.fieldManager.eraseAllUnprotected();
+  }
+
+  private static boolean isSplitLine(Field field, int columns) {
+    return field.isProtected() && field.getDisplayLength() == 79
+        && field.getFirstLocation() % columns == 1
+        && SPLIT_LINE.equals(field.getText());
+  }
+
+}
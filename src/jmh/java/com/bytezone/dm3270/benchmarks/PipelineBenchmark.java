@@ -0,0 +1,173 @@
+package com.bytezone.dm3270.benchmarks;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.streams.TelnetListener;
+import com.bytezone.dm3270.streams.TelnetSocket;
+import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.telnet.TelnetCommandProcessor;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays the server side of a recorded wiresham flow through each stage of the inbound
+ * pipeline.
+ * <ul>
+ * <li>{@code framing}: TelnetProcessor splitting the packets into records.</li>
+ * <li>{@code parsing}: building the commands of the 3270 records.</li>
+ * <li>{@code processing}: applying the parsed commands to the screen, fields included.</li>
+ * <li>{@code buildFields}: updating the fields of the last screen of the flow after a write
+ * that did not add or remove fields.</li>
+ * <li>{@code pipeline}: all of the above through TelnetListener, as done for socket reads.</li>
+ * </ul>
+ * Throughput is reported in operations (replays of the whole flow) per microsecond and the
+ * sample time mode gives the latency percentiles. Add {@code -prof gc} to get the allocation
+ * rate of each stage and {@code -p flow=<file>} to replay other flows of src/test/resources.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+  private static final ScreenDimensions DEFAULT_DIMENSIONS = new ScreenDimensions(24, 80);
+  private static final ScreenDimensions ALTERNATE_DIMENSIONS = new ScreenDimensions(27, 132);
+  private static final int TN3270E_HEADER_LENGTH = 5;
+  private static final byte TN3270_DATA = 0x00;
+
+  @Param({"login.yml", "login-3278-M2-E.yml", "login-3270-model-5.yml"})
+  private String flow;
+
+  private List<byte[]> packets;
+  private final List<byte[]> records = new ArrayList<>();     // 3270 data without IAC/EOR
+  private final List<Command> commands = new ArrayList<>();
+  private int dataOffset;
+  private Screen screen;
+  private TelnetListener telnetListener;
+  private final RecordCounter recordCounter = new RecordCounter();
+  private TelnetProcessor telnetProcessor;
+
+  @Setup
+  public void setup() throws IOException {
+    Charset.CP1047.load();
+    RecordedFlows recordedFlow = RecordedFlows.load(flow);
+    packets = recordedFlow.getServerPackets();
+    dataOffset = recordedFlow.usesExtended3270() ? TN3270E_HEADER_LENGTH : 0;
+
+    TelnetState telnetState = new TelnetState();
+    telnetState.setDo3270Extended(recordedFlow.usesExtended3270());
+    telnetState.setDoTerminalType(true);
+    screen = new Screen(DEFAULT_DIMENSIONS, ALTERNATE_DIMENSIONS, telnetState, Charset.CP1047);
+    telnetListener = new TelnetListener(screen, telnetState);
+    telnetProcessor = new TelnetProcessor(recordCounter);
+
+    TelnetProcessor recordCollector = new TelnetProcessor(new RecordCounter() {
+
+      @Override
+      public void processRecord(byte[] buffer, int offset, int length) {
+        if (dataOffset == 0 || buffer[offset] == TN3270_DATA) {
+          byte[] record = new byte[length - 2 - dataOffset];
+          System.arraycopy(buffer, offset + dataOffset, record, 0, record.length);
+          if (record.length > 0) {
+            records.add(record);
+          }
+        }
+      }
+    });
+    for (byte[] packet : packets) {
+      recordCollector.listen(packet);
+    }
+    for (byte[] record : records) {
+      commands.add(Command.getCommand(record, 0, record.length, Charset.CP1047));
+    }
+
+    pipeline();     // leaves the screen of the last record for buildFields
+  }
+
+  @Benchmark
+  public int framing() {
+    recordCounter.records = 0;
+    for (byte[] packet : packets) {
+      telnetProcessor.listen(packet);
+    }
+    return recordCounter.records;
+  }
+
+  @Benchmark
+  public Command parsing() {
+    Command command = null;
+    for (byte[] record : records) {
+      command = Command.getCommand(record, 0, record.length, Charset.CP1047);
+    }
+    return command;
+  }
+
+  @Benchmark
+  public Screen processing() {
+    for (Command command : commands) {
+      command.process(screen);
+    }
+    return screen;
+  }
+
+  @Benchmark
+  public Screen buildFields() {
+    screen.buildFields();
+    return screen;
+  }
+
+  @Benchmark
+  public Screen pipeline() {
+    for (byte[] packet : packets) {
+      telnetListener.listen(TelnetSocket.Source.SERVER, packet, 0, packet.length, null, true);
+    }
+    return screen;
+  }
+
+  private static class RecordCounter implements TelnetCommandProcessor {
+
+    private int records;
+
+    @Override
+    public void processData(byte[] buffer, int length) {
+    }
+
+    @Override
+    public void processRecord(byte[] buffer, int length) {
+      processRecord(buffer, 0, length);
+    }
+
+    @Override
+    public void processRecord(byte[] buffer, int offset, int length) {
+      records++;
+    }
+
+    @Override
+    public void processTelnetCommand(byte[] buffer, int length) {
+    }
+
+    @Override
+    public void processTelnetSubcommand(byte[] buffer, int length) {
+    }
+
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.bytezone.dm3270.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import us.abstracta.wiresham.Flow;
+import us.abstracta.wiresham.PacketStep;
+import us.abstracta.wiresham.ServerPacketStep;
+
+/**
+ * Server traffic recorded in the wiresham flows used by TerminalClientTest.
+ */
+final class RecordedFlows {
+
+  static final String[] NAMES = {"attribute_not_present.yml",
+      "field_without_start_attribute.yml", "login-3270-empty-field.yml",
+      "login-3270-model-5.yml", "login-3278-M2-E.yml", "login-apl-charset-screen.yml",
+      "login-extended-field-without-field-attribute.yml", "login-immediate-responses.yml",
+      "login-special-characters.yml", "login-without-fields.yml", "login.yml",
+      "test_capabilities.yml"};
+
+  // the server only starts the TN3270E subnegotiation if the client accepted TN3270E
+  private static final String TN3270E_SUBNEGOTIATION = "FFFA28";
+
+  private final List<byte[]> serverPackets = new ArrayList<>();
+  private boolean extended;
+
+  private RecordedFlows() {
+  }
+
+  static RecordedFlows load(String name) throws IOException {
+    RecordedFlows flow = new RecordedFlows();
+    try (InputStream in = RecordedFlows.class.getResourceAsStream("/" + name)) {
+      if (in == null) {
+        throw new IOException("Unknown flow: " + name);
+      }
+      for (PacketStep step : Flow.fromYmlStream(in).getSteps()) {
+        if (step instanceof ServerPacketStep) {
+          String data = step.getData().toUpperCase();
+          flow.serverPackets.add(hexToBytes(data));
+          flow.extended |= containsBytes(data, TN3270E_SUBNEGOTIATION);
+        }
+      }
+    }
+    return flow;
+  }
+
+  // packets sent by the server, as they would be read from the socket
+  List<byte[]> getServerPackets() {
+    return serverPackets;
+  }
+
+  // whether the recorded session used TN3270E
+  boolean usesExtended3270() {
+    return extended;
+  }
+
+  private static boolean containsBytes(String hex, String bytes) {
+    for (int i = hex.indexOf(bytes); i >= 0; i = hex.indexOf(bytes, i + 1)) {
+      if (i % 2 == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static byte[] hexToBytes(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return bytes;
+  }
+
+}
@@ -22,4 +22,17 @@ public interface ConnectionListener {
    */
   void onConnectionClosed();
 
+  /**
+   * Method invoked when the connection reaches one of its phases, to measure how long
+   * connecting to the terminal server takes.
+   * <p>
+   * It is invoked from the threads of the connection, so it should not block.
+   *
+   * @param phase Phase reached by the connection.
+   * @param nanoTime {@link System#nanoTime()} when the phase was reached, only comparable to the
+   * ones of other phases and connections in the same JVM.
+   */
+  default void onConnectionPhase(ConnectionPhase phase, long nanoTime) {
+  }
+
 }
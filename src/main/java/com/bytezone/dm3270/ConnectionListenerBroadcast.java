@@ -30,6 +30,11 @@ public class ConnectionListenerBroadcast implements ConnectionListener {
   public void onConnectionClosed() {
     notify(ConnectionListener::onConnectionClosed);
   }
+
+  @Override
+  public void onConnectionPhase(ConnectionPhase phase, long nanoTime) {
+    notify(connectionListener -> connectionListener.onConnectionPhase(phase, nanoTime));
+  }
   
   private void notify(Consumer<? super ConnectionListener> event) {
     connectionListeners.forEach(event);
@@ -0,0 +1,59 @@
+package com.bytezone.dm3270;
+
+/**
+ * Phases a connection goes through until the first screen is ready for input, in the order they
+ * are usually reached.
+ * <p>
+ * Each phase is notified to {@link ConnectionListener#onConnectionPhase(ConnectionPhase, long)}
+ * at most once per connection. Phases which don't apply to a connection, like the TLS handshake
+ * of a plain connection or the TN3270E negotiation with servers which don't support it, are never
+ * notified.
+ */
+public enum ConnectionPhase {
+
+  /**
+   * The client started connecting to the server.
+   */
+  CONNECTING,
+
+  /**
+   * The TCP connection was established.
+   */
+  TCP_CONNECTED,
+
+  /**
+   * The TLS handshake finished.
+   */
+  TLS_ESTABLISHED,
+
+  /**
+   * The server agreed to use TN3270E.
+   */
+  TN3270E_ACCEPTED,
+
+  /**
+   * The server accepted the TN3270E device type.
+   */
+  DEVICE_TYPE_ACCEPTED,
+
+  /**
+   * The server and the client agreed on the TN3270E functions.
+   */
+  FUNCTIONS_ACCEPTED,
+
+  /**
+   * The first record was received from the server, which ends the telnet negotiation.
+   */
+  FIRST_RECORD_RECEIVED,
+
+  /**
+   * The server bound the session to an application.
+   */
+  BIND_RECEIVED,
+
+  /**
+   * The keyboard was unlocked for the first time, so the first screen is ready for input.
+   */
+  KEYBOARD_UNLOCKED
+
+}
@@ -7,16 +7,27 @@ import com.bytezone.dm3270.display.Cursor;
 import com.bytezone.dm3270.display.CursorMoveListener;
 import com.bytezone.dm3270.display.Field;
 import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.ScreenChangeEventListener;
 import com.bytezone.dm3270.display.ScreenChangeListener;
 import com.bytezone.dm3270.display.ScreenDimensions;
-import com.bytezone.dm3270.display.ScreenPosition;
+import com.bytezone.dm3270.display.ScreenSnapshot;
+import com.bytezone.dm3270.metrics.ConnectTimes;
+import com.bytezone.dm3270.metrics.InMemoryMetrics;
+import com.bytezone.dm3270.metrics.ResponseTimes;
+import com.bytezone.dm3270.metrics.SessionMetrics;
+import com.bytezone.dm3270.streams.InboundQueue;
+import com.bytezone.dm3270.streams.KeepAliveScheduler;
+import com.bytezone.dm3270.streams.NioEventLoop;
 import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
 import java.awt.Point;
-import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
 
 /**
  * Client to connect to TN3270 terminal servers.
@@ -30,7 +41,11 @@ public class TerminalClient {
   private ConsolePane consolePane;
   private SocketFactory socketFactory = SocketFactory.getDefault();
   private int connectionTimeoutMillis;
+  private boolean tcpNoDelay = true;
+  private NioEventLoop eventLoop;
+  private SSLContext sslContext;
   private final ConnectionListenerBroadcast connectionListenerBroadcast;
+  private TerminalWaits waits;
 
   /**
    * Creates a new terminal client with given model and screen dimensions.
@@ -72,6 +87,41 @@ public class TerminalClient {
     this.socketFactory = socketFactory;
   }
 
+  /**
+   * Allows serving the connection from a shared {@link NioEventLoop} instead of a dedicated
+   * reader thread, so many clients can share a few threads.
+   *
+   * @param eventLoop the event loop to register the connection with. If none is specified (the
+   * default) each connection uses its own thread and the configured {@link SocketFactory}.
+   */
+  public void setEventLoop(NioEventLoop eventLoop) {
+    this.eventLoop = eventLoop;
+  }
+
+  /**
+   * Sets the {@link SSLContext} used to secure connections served by a {@link NioEventLoop}.
+   *
+   * @param sslContext the context to create the SSL engine from. If none is specified plain
+   * connections are used. It is ignored when no event loop has been set, since in that case the
+   * {@link SocketFactory} is the one in charge of SSL.
+   */
+  public void setSslContext(SSLContext sslContext) {
+    this.sslContext = sslContext;
+  }
+
+  /**
+   * Allows saving round trips while connecting to high latency servers.
+   *
+   * @param optimisticNegotiation when true the telnet options are offered as soon as the
+   * connection is established, instead of waiting for the server to ask for each of them, and
+   * the TN3270E functions are requested together with the device type. Servers refusing the
+   * offers are negotiated with as usual. Since some servers may not expect them it is false by
+   * default. Must be set before connecting.
+   */
+  public void setOptimisticNegotiation(boolean optimisticNegotiation) {
+    screen.getTelnetState().setDoOptimisticNegotiation(optimisticNegotiation);
+  }
+
   /**
    * Sets the timeout for the socket connection.
    *
@@ -82,11 +132,84 @@ public class TerminalClient {
     this.connectionTimeoutMillis = connectionTimeoutMillis;
   }
 
+  /**
+   * Sets whether the socket sends data as soon as it is written (TCP_NODELAY) or waits to send
+   * fuller packets (Nagle's algorithm).
+   *
+   * @param tcpNoDelay when true, which is the default, data is sent right away. Replies produced
+   * while processing what the server sent are already coalesced into a single write.
+   */
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  /**
+   * Sets the time the connection may stay idle before a keep-alive NO_OP is sent to the server.
+   *
+   * @param keepAliveIntervalMillis Number of millis without any communication with the server
+   * before a NO_OP is sent. If not specified 120 seconds will be used. A value of 0 disables
+   * keep-alive.
+   */
+  public void setKeepAliveIntervalMillis(long keepAliveIntervalMillis) {
+    screen.getTelnetState().setKeepAliveIntervalMillis(keepAliveIntervalMillis);
+  }
+
+  /**
+   * Sets the size of the biggest record (screen or structured field) accepted from the server.
+   *
+   * @param maxRecordSize maximum number of bytes of a record. If not specified
+   * {@link TelnetProcessor#DEFAULT_MAX_RECORD_SIZE} will be used. Bigger records close the
+   * connection and are notified to the {@link ConnectionListener}.
+   */
+  public void setMaxRecordSize(int maxRecordSize) {
+    screen.getTelnetState().setMaxRecordSize(maxRecordSize);
+  }
+
+  /**
+   * Allows processing the records received from the server out of the thread reading the
+   * socket, so slow screen listeners don't delay reading from the server.
+   *
+   * @param inboundQueue the queue where received records wait to be processed, which sets the
+   * number of pending records, what to do when it is full and the threads processing them. It
+   * also provides the queue depth metrics. If none is specified (the default) records are
+   * processed as soon as they are read. Sessions served by an event loop never block it when
+   * their queue is full, they stop reading from the server instead. Must be set before
+   * connecting.
+   */
+  public void setInboundQueue(InboundQueue inboundQueue) {
+    screen.getTelnetState().setInboundQueue(inboundQueue);
+  }
+
+  /**
+   * Allows setting the executor in charge of sending keep-alive NO_OPs.
+   *
+   * @param keepAliveExecutor the executor to schedule keep-alive checks on. If none is specified
+   * {@link KeepAliveScheduler#getDefault()} will be used, which serves all clients from a single
+   * thread.
+   */
+  public void setKeepAliveExecutor(ScheduledExecutorService keepAliveExecutor) {
+    screen.getTelnetState().setKeepAliveExecutor(keepAliveExecutor);
+  }
+
+  /**
+   * Allows reporting what the session does in each stage of the telnet/3270 pipeline to a
+   * metrics library.
+   *
+   * @param metrics receives bytes read and written, records, telnet commands, commands by name,
+   * and the time spent processing writes, building fields and encoding the screen.
+   * {@link InMemoryMetrics} keeps them in memory and may be shared by many clients. If none is
+   * specified nothing is measured. Must be set before connecting.
+   */
+  public void setMetrics(SessionMetrics metrics) {
+    screen.getTelnetState().setMetrics(metrics);
+  }
+
   /**
    * Adds a class to handle general exception handler.
    *
    * @param connectionListener a class to handle exceptions. If none is provided then exceptions
-   * stack trace will be printed to error output.
+   * stack trace will be printed to error output. It is also notified of each
+   * {@link ConnectionPhase} reached while connecting, with its timestamp.
    */
   public void addConnectionListener(ConnectionListener connectionListener) {
     this.connectionListenerBroadcast.add(connectionListener);
@@ -112,7 +235,9 @@ public class TerminalClient {
     screen.lockKeyboard("connect");
     consolePane = new ConsolePane(screen, new Site(host, port, usesExtended3270), socketFactory);
     consolePane.setConnectionTimeoutMillis(connectionTimeoutMillis);
+    consolePane.setTcpNoDelay(tcpNoDelay);
     consolePane.setConnectionListener(connectionListenerBroadcast);
+    consolePane.setEventLoop(eventLoop, sslContext);
     consolePane.connect();
   }
 
@@ -138,7 +263,7 @@ public class TerminalClient {
 
   private void setPositionText(String text, int fieldPosition) {
     screen.setPositionText(fieldPosition, text);
-    setCursorPosition(fieldPosition + findFieldNextPosition(text));
+    setCursorPosition(fieldPosition + findFieldNextPosition(text));     // publishes the screen
   }
 
   private int findFieldNextPosition(String text) {
@@ -159,7 +284,7 @@ public class TerminalClient {
         field.getDisplayLength() > nextPosition ? field.getFirstLocation() + nextPosition
             : field.getNextUnprotectedField().getFirstLocation();
 
-    setCursorPosition(cursorPosition);
+    setCursorPosition(cursorPosition);                                   // publishes the screen
   }
 
   public void setFieldTextByLabel(String lbl, String text) {
@@ -203,7 +328,7 @@ public class TerminalClient {
   }
 
   private Field findLabelField(String label) {
-    String screenText = getScreenText().replace("\n", "");
+    String screenText = screen.getPositionsText();
     int pos = 0;
     Field fallbackLabelField = null;
     while (pos != -1) {
@@ -289,24 +414,19 @@ public class TerminalClient {
    * @return The screen text with newlines separating each row.
    */
   public String getScreenText() {
-    StringBuilder text = new StringBuilder();
-    int pos = 0;
-    boolean visible = true;
-    Iterator<ScreenPosition> positionsIterator = screen.getPen().iterator();
-    ScreenDimensions screenDimensions = screen.getScreenDimensions();
-    int positionsCount = screenDimensions.columns * screenDimensions.rows;
-    while (pos < positionsCount && positionsIterator.hasNext()) {
-      ScreenPosition sp = positionsIterator.next();
-      if (sp.isStartField()) {
-        visible = sp.getStartFieldAttribute().isVisible();
-      }
-      text.append(visible ? sp.getChar() : ' ');
-      ++pos;
-      if (pos % screenDimensions.columns == 0) {
-        text.append("\n");
-      }
-    }
-    return text.toString();
+    return screen.getText();
+  }
+
+  /**
+   * Gets an immutable copy of the screen, which unlike the other methods of this class can be
+   * used from any thread while the screen is being updated.
+   *
+   * @return The screen as it was after the last record received from the server was processed.
+   * Changes made through this client, like setting field text or moving the cursor, only show up
+   * once the server sends the next record.
+   */
+  public ScreenSnapshot getScreenSnapshot() {
+    return screen.getSnapshot();
   }
 
   /**
@@ -321,6 +441,10 @@ public class TerminalClient {
 
   /**
    * Adding a {@link ScreenChangeListener} to the terminal emulator.
+   * <p>
+   * Listeners are notified once per write from the host, after the write has been completely
+   * processed. So the cursor location, keyboard status and alarm they see are the ones set by the
+   * write control character of the write, not the previous ones.
    *
    * @param listener The listener to be notified when changes on the screen happen.
    */
@@ -337,6 +461,27 @@ public class TerminalClient {
     screen.getFieldManager().removeScreenChangeListener(listener);
   }
 
+  /**
+   * Adding a {@link ScreenChangeEventListener} to the terminal emulator.
+   * <p>
+   * Listeners are notified at the same time as {@link ScreenChangeListener}s, with the rows and
+   * fields changed by the write.
+   *
+   * @param listener The listener to be notified with the changes of each write.
+   */
+  public void addScreenChangeEventListener(ScreenChangeEventListener listener) {
+    screen.getFieldManager().addScreenChangeEventListener(listener);
+  }
+
+  /**
+   * Remove a {@link ScreenChangeEventListener} from the terminal emulator.
+   *
+   * @param listener Listener to be removed from notifications.
+   */
+  public void removeScreenChangeEventListener(ScreenChangeEventListener listener) {
+    screen.getFieldManager().removeScreenChangeEventListener(listener);
+  }
+
   /**
    * Allows checking if keyboard has been locked (no input can be sent) by the terminal server.
    *
@@ -430,6 +575,85 @@ public class TerminalClient {
     screen.getScreenCursor().removeCursorMoveListener(listener);
   }
 
+  /**
+   * Waits for the keyboard to be unlocked by the server and remain unlocked during a stable
+   * period, since some servers unlock the keyboard several times while sending a screen.
+   *
+   * @param stableMillis time the keyboard has to remain unlocked.
+   * @param timeoutMillis time after which the returned future fails with a {@link
+   * java.util.concurrent.TimeoutException}.
+   * @return A future completed when the keyboard has been unlocked during the stable period. It
+   * also fails when the connection fails or is closed before that.
+   */
+  public CompletableFuture<Void> awaitKeyboardUnlock(long stableMillis, long timeoutMillis) {
+    return getWaits().await(() -> !screen.isKeyboardLocked(), false, stableMillis,
+        timeoutMillis);
+  }
+
+  /**
+   * Waits for the screen to contain a text, and then for a stable period without screen,
+   * cursor or keyboard changes.
+   *
+   * @param text text to look for in {@link #getScreenText()}.
+   * @param stableMillis time without changes required after the text is found.
+   * @param timeoutMillis time after which the returned future fails with a {@link
+   * java.util.concurrent.TimeoutException}.
+   * @return A future completed when the text has been found and the screen is stable.
+   */
+  public CompletableFuture<Void> awaitText(String text, long stableMillis, long timeoutMillis) {
+    return getWaits().await(() -> screen.getText().contains(text), true, stableMillis,
+        timeoutMillis);
+  }
+
+  /**
+   * Waits for a period without screen, cursor or keyboard changes.
+   * <p>
+   * Telnet negotiation does not change the screen, so while connecting the quiet period may end
+   * before the first screen arrives. Use {@link #awaitKeyboardUnlock} first in that case.
+   *
+   * @param quietMillis time without changes required.
+   * @param timeoutMillis time after which the returned future fails with a {@link
+   * java.util.concurrent.TimeoutException}.
+   * @return A future completed when no changes have happened during the quiet period.
+   */
+  public CompletableFuture<Void> awaitScreenStable(long quietMillis, long timeoutMillis) {
+    return getWaits().await(() -> true, true, quietMillis, timeoutMillis);
+  }
+
+  // listeners are only registered once the client waits, so the screen change events are not
+  // built for clients that never do
+  private synchronized TerminalWaits getWaits() {
+    if (waits == null) {
+      waits = new TerminalWaits();
+      screen.addKeyboardStatusChangeListener(waits);
+      screen.getFieldManager().addScreenChangeListener(waits);
+      screen.getScreenCursor().addCursorMoveListener(waits);
+      connectionListenerBroadcast.add(waits);
+    }
+    return waits;
+  }
+
+  /**
+   * Gets the time the server took to answer each AID sent by this client.
+   *
+   * @return The response times of this session. {@link ResponseTimes#getAggregate()} gives the
+   * ones of all the sessions.
+   */
+  public ResponseTimes getResponseTimes() {
+    return screen.getTelnetState().getResponseTimes();
+  }
+
+  /**
+   * Gets the time taken by each phase of connecting this client: TCP connection, TLS handshake,
+   * telnet negotiation and first screen.
+   *
+   * @return The connect times of this session. {@link ConnectTimes#getAggregate()} gives the
+   * ones of all the sessions.
+   */
+  public ConnectTimes getConnectTimes() {
+    return screen.getTelnetState().getConnectTimes();
+  }
+
   /**
    * Disconnect the terminal emulator from the server.
    *
@@ -0,0 +1,178 @@
+package com.bytezone.dm3270;
+
+import com.bytezone.dm3270.application.KeyboardStatusChangedEvent;
+import com.bytezone.dm3270.application.KeyboardStatusListener;
+import com.bytezone.dm3270.display.CursorMoveListener;
+import com.bytezone.dm3270.display.Field;
+import com.bytezone.dm3270.display.ScreenChangeListener;
+import com.bytezone.dm3270.display.ScreenWatcher;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits of a {@link TerminalClient} for a condition to hold during a stable period.
+ * <p>
+ * The waits are checked from the listeners of the client, which are registered once, and their
+ * stable periods and timeouts are scheduled in a single thread shared by all clients. Events
+ * received during a stable period only move its deadline, the pending check is rescheduled when
+ * it runs, so a busy screen does not cancel and schedule a task per event.
+ * <p>
+ * The futures are completed by that shared thread, so slow dependent actions should use the
+ * async methods of {@link CompletableFuture}.
+ */
+class TerminalWaits implements KeyboardStatusListener, ScreenChangeListener,
+    CursorMoveListener, ConnectionListener {
+
+  private final Set<Wait> waits = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService scheduler;
+
+  TerminalWaits() {
+    this(getDefaultScheduler());
+  }
+
+  TerminalWaits(ScheduledExecutorService scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  static ScheduledExecutorService getDefaultScheduler() {
+    return Holder.SCHEDULER;
+  }
+
+  /**
+   * Waits for the condition to hold during the stable period. When activityRestarts is true,
+   * any screen, cursor or keyboard event restarts the stable period, and once the condition
+   * holds it is not evaluated again.
+   */
+  CompletableFuture<Void> await(BooleanSupplier condition, boolean activityRestarts,
+      long stableMillis, long timeoutMillis) {
+    Wait wait = new Wait(condition, activityRestarts, TimeUnit.MILLISECONDS.toNanos(stableMillis));
+    waits.add(wait);
+    wait.future.whenComplete((result, ex) -> {
+      waits.remove(wait);
+      wait.cancelTasks();
+    });
+    wait.timeoutTask = scheduler.schedule(
+        () -> wait.future.completeExceptionally(new TimeoutException()),
+        timeoutMillis, TimeUnit.MILLISECONDS);
+    wait.update(false);
+    return wait.future;
+  }
+
+  @Override
+  public void keyboardStatusChanged(KeyboardStatusChangedEvent keyboardStatusChangedEvent) {
+    waits.forEach(wait -> wait.update(true));
+  }
+
+  @Override
+  public void screenChanged(ScreenWatcher screenWatcher) {
+    waits.forEach(wait -> wait.update(true));
+  }
+
+  @Override
+  public void cursorMoved(int oldLocation, int newLocation, Field field) {
+    waits.forEach(wait -> wait.update(true));
+  }
+
+  @Override
+  public void onConnection() {
+  }
+
+  @Override
+  public void onException(Exception ex) {
+    waits.forEach(wait -> wait.future.completeExceptionally(ex));
+  }
+
+  @Override
+  public void onConnectionClosed() {
+    waits.forEach(wait -> wait.future
+        .completeExceptionally(new IllegalStateException("Connection closed")));
+  }
+
+  private final class Wait {
+
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final BooleanSupplier condition;
+    private final boolean activityRestarts;
+    private final long stableNanos;
+
+    private boolean conditionHeld;
+    private long stableDeadline;            // only valid when conditionHeld
+    private ScheduledFuture<?> checkTask;
+    private ScheduledFuture<?> timeoutTask;
+
+    private Wait(BooleanSupplier condition, boolean activityRestarts, long stableNanos) {
+      this.condition = condition;
+      this.activityRestarts = activityRestarts;
+      this.stableNanos = stableNanos;
+    }
+
+    private synchronized void update(boolean activity) {
+      if (future.isDone()) {
+        return;
+      }
+
+      boolean wasHeld = conditionHeld;
+      conditionHeld = activityRestarts && wasHeld || condition.getAsBoolean();
+      if (!conditionHeld) {
+        return;                           // the pending check finds it is no longer held
+      }
+      if (!wasHeld || activity && activityRestarts) {
+        stableDeadline = System.nanoTime() + stableNanos;
+        if (checkTask == null) {
+          checkTask = scheduler.schedule(this::check, stableNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+
+    private synchronized void check() {
+      checkTask = null;
+      if (future.isDone() || !conditionHeld) {
+        return;
+      }
+      long remaining = stableDeadline - System.nanoTime();
+      if (remaining > 0) {
+        checkTask = scheduler.schedule(this::check, remaining, TimeUnit.NANOSECONDS);
+      } else {
+        future.complete(null);
+      }
+    }
+
+    private synchronized void cancelTasks() {
+      if (checkTask != null) {
+        checkTask.cancel(false);
+        checkTask = null;
+      }
+      if (timeoutTask != null) {
+        timeoutTask.cancel(false);
+      }
+    }
+
+  }
+
+  // lazily creates the thread the first time a client waits
+  private static final class Holder {
+
+    private static final ScheduledExecutorService SCHEDULER = buildScheduler();
+
+    private static ScheduledExecutorService buildScheduler() {
+      ThreadFactory threadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "dm3270-waits");
+        thread.setDaemon(true);
+        return thread;
+      };
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+      executor.setRemoveOnCancelPolicy(true);
+      return executor;
+    }
+
+  }
+
+}
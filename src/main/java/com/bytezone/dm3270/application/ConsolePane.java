@@ -1,18 +1,18 @@
 package com.bytezone.dm3270.application;
 
 import com.bytezone.dm3270.ConnectionListener;
-import com.bytezone.dm3270.buffers.Buffer;
-import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.ConnectionPhase;
 import com.bytezone.dm3270.display.CursorMoveListener;
 import com.bytezone.dm3270.display.Field;
 import com.bytezone.dm3270.display.FieldChangeListener;
 import com.bytezone.dm3270.display.Screen;
-import com.bytezone.dm3270.extended.CommandHeader;
-import com.bytezone.dm3270.extended.TN3270ExtendedCommand;
+import com.bytezone.dm3270.streams.NioEventLoop;
+import com.bytezone.dm3270.streams.NioTerminalServer;
 import com.bytezone.dm3270.streams.TelnetListener;
 import com.bytezone.dm3270.streams.TelnetState;
 import com.bytezone.dm3270.streams.TerminalServer;
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
 
 public class ConsolePane implements FieldChangeListener, CursorMoveListener,
     KeyboardStatusListener {
@@ -25,8 +25,12 @@ public class ConsolePane implements FieldChangeListener, CursorMoveListener,
 
   private TerminalServer terminalServer;
   private Thread terminalServerThread;
+  private NioTerminalServer nioTerminalServer;
   private int connectionTimeoutMillis;
+  private boolean tcpNoDelay = true;
   private ConnectionListener connectionListener;
+  private NioEventLoop eventLoop;
+  private SSLContext sslContext;
 
   public ConsolePane(Screen screen, Site server, SocketFactory socketFactory) {
     this.screen = screen;
@@ -43,11 +47,21 @@ public class ConsolePane implements FieldChangeListener, CursorMoveListener,
     this.connectionTimeoutMillis = connectionTimeoutMillis;
   }
 
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
   public void setConnectionListener(
       ConnectionListener connectionListener) {
     this.connectionListener = connectionListener;
   }
 
+  // when set, the session is served by the event loop instead of its own reader thread
+  public void setEventLoop(NioEventLoop eventLoop, SSLContext sslContext) {
+    this.eventLoop = eventLoop;
+    this.sslContext = sslContext;
+  }
+
   public void sendAID(byte aid, String name) {
     if (screen.isInsertMode()) {
       screen.toggleInsertMode();
@@ -56,26 +70,8 @@ public class ConsolePane implements FieldChangeListener, CursorMoveListener,
     screen.lockKeyboard(name);
     screen.setAID(aid);
 
-    Command command = screen.readModifiedFields();
-    sendAID(command);
-  }
-
-  private void sendAID(Command command) {
-    assert telnetState != null;
-
-    if (telnetState.does3270Extended()) {
-      byte[] buffer = new byte[5];
-      if (screen.isSscpLuData()) {
-        buffer[0] = 0x07;
-      }
-      Buffer.packUnsignedShort(telnetState.nextCommandHeaderSeq(), buffer, 3);
-      CommandHeader header = new CommandHeader(buffer, screen.getCharset());
-      TN3270ExtendedCommand extendedCommand = new TN3270ExtendedCommand(header, command,
-          telnetState, screen.getCharset());
-      telnetState.write(extendedCommand.getTelnetData());
-    } else {
-      telnetState.write(command.getTelnetData());
-    }
+    telnetState.getResponseTimes().aidSent();
+    screen.sendModifiedFields();
   }
 
   public void connect() {
@@ -87,10 +83,24 @@ public class ConsolePane implements FieldChangeListener, CursorMoveListener,
     telnetState.setDo3270Extended(server.getExtended());
     telnetState.setDoTerminalType(true);
 
+    telnetState.setConnectionListener(connectionListener);
+    telnetState.phaseReached(ConnectionPhase.CONNECTING);
     TelnetListener telnetListener = new TelnetListener(screen, telnetState);
+    if (eventLoop != null) {
+      nioTerminalServer = new NioTerminalServer(server.getURL(), server.getPort(), sslContext,
+          eventLoop, telnetListener);
+      nioTerminalServer.setConnectionTimeoutMillis(connectionTimeoutMillis);
+      nioTerminalServer.setTcpNoDelay(tcpNoDelay);
+      nioTerminalServer.setConnectionListener(connectionListener);
+      telnetState.setTerminalServer(nioTerminalServer);
+      nioTerminalServer.connect();
+      return;
+    }
+
     terminalServer =
         new TerminalServer(server.getURL(), server.getPort(), socketFactory, telnetListener);
     terminalServer.setConnectionTimeoutMillis(connectionTimeoutMillis);
+    terminalServer.setTcpNoDelay(tcpNoDelay);
     terminalServer.setConnectionListener(connectionListener);
     telnetState.setTerminalServer(terminalServer);
 
@@ -105,6 +115,10 @@ public class ConsolePane implements FieldChangeListener, CursorMoveListener,
       terminalServer.close();
     }
 
+    if (nioTerminalServer != null) {
+      nioTerminalServer.close();
+    }
+
     if (terminalServerThread != null) {
       terminalServerThread.interrupt();
       terminalServerThread.join();
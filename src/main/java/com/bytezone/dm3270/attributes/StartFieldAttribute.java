@@ -101,7 +101,7 @@ public class StartFieldAttribute extends Attribute {
 
     assert unused1 == null && unused2 == null;
 
-    return new ScreenContext(getColor(), BLACK, (byte) 0, isHighIntensity, false);
+    return ScreenContext.of(getColor(), BLACK, (byte) 0, isHighIntensity, false);
   }
 
   private String getColorName() {
@@ -4,6 +4,11 @@ public abstract class AbstractBuffer implements Buffer {
 
   protected byte[] data;
 
+  // the record this buffer is a view of, until the bytes are copied to data
+  private byte[] source;
+  private int sourceOffset;
+  private int sourceLength;
+
   public AbstractBuffer() {
     data = new byte[0];
   }
@@ -13,18 +18,50 @@ public abstract class AbstractBuffer implements Buffer {
     System.arraycopy(buffer, offset, data, 0, length);
   }
 
+  /**
+   * Creates a buffer which refers to {@code buffer} instead of copying it. It is meant for
+   * commands which parse the record in their constructor and never use {@code data} directly.
+   * The bytes are copied by the first call to {@link #getData()}, which must happen before the
+   * caller reuses {@code buffer} if this object outlives the record.
+   */
+  protected AbstractBuffer(byte[] buffer, int offset, int length, boolean view) {
+    if (view) {
+      source = buffer;
+      sourceOffset = offset;
+      sourceLength = length;
+    } else {
+      data = new byte[length];
+      System.arraycopy(buffer, offset, data, 0, length);
+    }
+  }
+
   @Override
   public byte[] getData() {
+    if (data == null) {
+      data = new byte[sourceLength];
+      System.arraycopy(source, sourceOffset, data, 0, sourceLength);
+      source = null;
+    }
     return data;
   }
 
+  // the bytes of this buffer, which are the record it is a view of until they are copied
+  protected byte[] getRecord() {
+    return data == null ? source : data;
+  }
+
+  protected int getRecordOffset() {
+    return data == null ? sourceOffset : 0;
+  }
+
   @Override
   public int size() {
-    return data.length;
+    return data == null ? sourceLength : data.length;
   }
 
   @Override
   public byte[] getTelnetData() {
+    byte[] data = getData();
     int length = data.length + countFF(data) + 2; // allow for expanded 0xFF and IAC/EOR
     byte[] buffer = new byte[length];
     copyAndExpand(data, buffer);
@@ -13,6 +13,10 @@ public abstract class AbstractReplyBuffer extends AbstractBuffer implements Repl
     super(buffer, offset, length);
   }
 
+  protected AbstractReplyBuffer(byte[] buffer, int offset, int length, boolean view) {
+    super(buffer, offset, length, view);
+  }
+
   @Override
   public void setReply(Buffer reply) {
     this.reply = reply;
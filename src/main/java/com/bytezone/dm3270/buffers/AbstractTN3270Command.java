@@ -9,4 +9,8 @@ public abstract class AbstractTN3270Command extends AbstractReplyBuffer {
     super(buffer, offset, length);
   }
 
+  protected AbstractTN3270Command(byte[] buffer, int offset, int length, boolean view) {
+    super(buffer, offset, length, view);
+  }
+
 }
@@ -0,0 +1,86 @@
+package com.bytezone.dm3270.buffers;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Byte arrays lent to sessions while they pack data for the server, so idle sessions don't keep
+ * any and big screens get arrays as big as they need.
+ * <p>
+ * Arrays are grouped in sizes which are powers of two, from 1 KB to 64 KB, and each size keeps
+ * up to {@value #MAX_POOLED} released arrays. Bigger arrays are allocated on each use and left
+ * to the garbage collector. Arrays can be acquired and released from any thread.
+ */
+public final class BufferPool {
+
+  private static final int MIN_SHIFT = 10;
+  private static final int MAX_SHIFT = 16;
+  private static final int MAX_POOLED = 64;
+
+  private static final BufferPool DEFAULT = new BufferPool();
+
+  private final SizeClass[] sizeClasses = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+
+  public BufferPool() {
+    for (int i = 0; i < sizeClasses.length; i++) {
+      sizeClasses[i] = new SizeClass(1 << (MIN_SHIFT + i));
+    }
+  }
+
+  /**
+   * Pool shared by all the sessions of this JVM.
+   */
+  public static BufferPool getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Gets an array of at least the given length, with any contents. It should be given back with
+   * {@link #release(byte[])} once it is no longer used.
+   */
+  public byte[] acquire(int minLength) {
+    SizeClass sizeClass = getSizeClass(minLength);
+    if (sizeClass == null) {
+      return new byte[minLength];
+    }
+    byte[] buffer = sizeClass.buffers.poll();
+    if (buffer == null) {
+      return new byte[sizeClass.length];
+    }
+    sizeClass.pooled.decrementAndGet();
+    return buffer;
+  }
+
+  // arrays which were not lent by a pool are left to the garbage collector
+  public void release(byte[] buffer) {
+    SizeClass sizeClass = getSizeClass(buffer.length);
+    if (sizeClass == null || sizeClass.length != buffer.length) {
+      return;
+    }
+    if (sizeClass.pooled.incrementAndGet() <= MAX_POOLED) {
+      sizeClass.buffers.offer(buffer);
+    } else {
+      sizeClass.pooled.decrementAndGet();
+    }
+  }
+
+  private SizeClass getSizeClass(int length) {
+    int shift = length <= 1 << MIN_SHIFT ? MIN_SHIFT
+        : 32 - Integer.numberOfLeadingZeros(length - 1);
+    return shift > MAX_SHIFT ? null : sizeClasses[shift - MIN_SHIFT];
+  }
+
+  private static final class SizeClass {
+
+    private final int length;
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private SizeClass(int length) {
+      this.length = length;
+    }
+
+  }
+
+}
@@ -35,6 +35,10 @@ public abstract class Command extends AbstractTN3270Command {
     super(buffer, offset, length);
   }
 
+  protected Command(byte[] buffer, int offset, int length, boolean view) {
+    super(buffer, offset, length, view);
+  }
+
   public Command() {
   }
 
@@ -4,20 +4,32 @@ import com.bytezone.dm3270.Charset;
 import com.bytezone.dm3270.display.Cursor;
 import com.bytezone.dm3270.display.Screen;
 import com.bytezone.dm3270.display.Screen.ScreenOption;
+import com.bytezone.dm3270.metrics.SessionMetrics;
 import com.bytezone.dm3270.orders.Order;
+import com.bytezone.dm3270.orders.OrderDecoder;
 import com.bytezone.dm3270.orders.TextOrder;
 import java.util.ArrayList;
 import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class WriteCommand extends Command {
 
+  private static final Logger LOG = LoggerFactory.getLogger(WriteCommand.class);
+
   private final boolean eraseWrite;
   private final boolean alternate;
   private final WriteControlCharacter writeControlCharacter;
-  private final List<Order> orders = new ArrayList<>();
-
+  private final Charset charset;
+  private final byte commandCode;
+  private List<Order> orders;               // only created for tracing and toString()
+
+  // The command is a view of the record, whose orders are applied to the screen while scanning
+  // it when the command is processed, so the record must not be reused until then. Whoever keeps
+  // the command after that, like a SessionRecord, must call getData() first, and from then on
+  // the command scans its own copy.
   public WriteCommand(byte[] buffer, int offset, int length, Charset charset) {
-    super(buffer, offset, length);
+    super(buffer, offset, length, true);
 
     assert buffer[offset] == Command.WRITE_01 || buffer[offset] == Command.WRITE_F1
         || buffer[offset] == Command.ERASE_WRITE_05
@@ -31,26 +43,54 @@ public class WriteCommand extends Command {
     writeControlCharacter =
         length > 1 ? new WriteControlCharacter(buffer[offset + 1]) : null;
 
-    int ptr = offset + 2;
-    Order previousOrder = null;
+    this.charset = charset;
+    commandCode = buffer[offset];
+  }
 
-    int max = offset + length;
-    while (ptr < max) {
-      Order order = Order.getOrder(buffer, ptr, max, charset);
+  private boolean hasOrders() {
+    return size() > 2;
+  }
 
-      if (order.matchesPreviousOrder(previousOrder)) {
-        previousOrder.incrementDuplicates();           // and discard this Order
-      } else {
-        orders.add(order);
-        previousOrder = order;
-      }
+  // catches records reused while this command still refers to them
+  private byte[] getCheckedRecord() {
+    byte[] record = getRecord();
+    assert record[getRecordOffset()] == commandCode : "Record reused before it was processed";
+    return record;
+  }
 
-      ptr += order.size();
+  // the object per order form, with consecutive duplicate orders folded
+  private List<Order> getOrders() {
+    if (orders == null) {
+      orders = new ArrayList<>();
+      byte[] record = getCheckedRecord();
+      int ptr = getRecordOffset() + 2;
+      int ordersMax = getRecordOffset() + size();
+      Order previousOrder = null;
+      while (ptr < ordersMax) {
+        Order order = Order.getOrder(record, ptr, ordersMax, charset);
+        if (ptr + order.size() > ordersMax) {
+          // same as OrderDecoder, which checks the length of each order
+          throw new IllegalArgumentException(
+              "Order runs past the end of the record: " + order);
+        }
+
+        if (order.matchesPreviousOrder(previousOrder)) {
+          previousOrder.incrementDuplicates();           // and discard this Order
+        } else {
+          orders.add(order);
+          previousOrder = order;
+        }
+
+        ptr += order.size();
+      }
     }
+    return orders;
   }
 
   @Override
   public void process(Screen screen) {
+    SessionMetrics metrics = screen.getTelnetState().getMetrics();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
     Cursor cursor = screen.getScreenCursor();
     int cursorLocation = cursor.getLocation();
     boolean screenDrawRequired = false;
@@ -66,9 +106,15 @@ public class WriteCommand extends Command {
       screen.lockKeyboard("Write");
     }
 
-    if (orders.size() > 0) {
-      for (Order order : orders) {
-        order.process(screen);         // modifies pen
+    if (hasOrders()) {
+      if (LOG.isTraceEnabled()) {
+        for (Order order : getOrders()) {
+          order.process(screen);         // modifies pen
+        }
+        LOG.trace("{}", this);
+      } else {
+        int offset = getRecordOffset();
+        OrderDecoder.process(getCheckedRecord(), offset + 2, offset + size(), screen);
       }
 
       cursor.moveTo(cursorLocation);
@@ -85,11 +131,15 @@ public class WriteCommand extends Command {
 
     // should check for suppressDisplay
     if (!screen.isKeyboardLocked() && screen.getFieldManager().size() > 0) {
-      if (orders.size() > 0 || !writeControlCharacter.isResetModified()) {
+      if (hasOrders() || !writeControlCharacter.isResetModified()) {
         setReply(null);
       }
     }
 
+    if (metrics.isEnabled()) {
+      metrics.writeProcessed(System.nanoTime() - start);
+    }
+
     if (screenDrawRequired) {
       screen.draw();
     }
@@ -108,6 +158,7 @@ public class WriteCommand extends Command {
     text.append("\nWCC : ").append(writeControlCharacter);
 
     // if the list begins with a TextOrder then tab out the missing columns
+    List<Order> orders = getOrders();
     if (orders.size() > 0 && orders.get(0) instanceof TextOrder) {
       text.append(String.format("%40s", ""));
     }
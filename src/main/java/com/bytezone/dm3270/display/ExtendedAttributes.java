@@ -0,0 +1,149 @@
+package com.bytezone.dm3270.display;
+
+import com.bytezone.dm3270.attributes.Attribute;
+import com.bytezone.dm3270.attributes.BackgroundColor;
+import com.bytezone.dm3270.attributes.Charset;
+import com.bytezone.dm3270.attributes.ColorAttribute;
+import com.bytezone.dm3270.attributes.ExtendedHighlight;
+import com.bytezone.dm3270.attributes.ForegroundColor;
+import com.bytezone.dm3270.attributes.ResetAttribute;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs the extended attributes set on a screen position into a single long.
+ * <p>
+ * Bits 0-31 hold the foreground color, background color, highlight and character set values, a
+ * byte each, bits 32-39 the order in which the types were set, two bits per type, bits 40-42 how
+ * many types were set and bit 43 whether a reset came first.
+ * <p>
+ * A reset discards whatever was set before it, and a later value of a type replaces the earlier
+ * one and moves it to the end of the order. So applying or sending the packed attributes gives
+ * the same result as the original ones, but attributes which had no effect are not sent back to
+ * the host.
+ */
+final class ExtendedAttributes {
+
+  static final long NONE = 0;
+
+  private static final Logger LOG = LoggerFactory.getLogger(ExtendedAttributes.class);
+
+  private static final int FOREGROUND = 0;
+  private static final int BACKGROUND = 1;
+  private static final int HIGHLIGHT = 2;
+  private static final int CHARSET = 3;
+
+  private static final int ORDER_SHIFT = 32;
+  private static final int COUNT_SHIFT = 40;
+  private static final long RESET = 1L << 43;
+
+  private static final byte APL_CHARSET_VALUE = (byte) 0xF1;
+
+  private ExtendedAttributes() {
+  }
+
+  static long add(long packed, Attribute attribute) {
+    switch (attribute.getAttributeType()) {
+      case RESET:
+        return RESET;
+      case FOREGROUND_COLOR:
+        return set(packed, FOREGROUND, attribute.getAttributeValue());
+      case BACKGROUND_COLOR:
+        return set(packed, BACKGROUND, attribute.getAttributeValue());
+      case HIGHLIGHT:
+        return set(packed, HIGHLIGHT, attribute.getAttributeValue());
+      case CHARSET:
+        return set(packed, CHARSET, attribute.getAttributeValue());
+      default:
+        LOG.debug("Ignoring attribute: {}", attribute);
+        return packed;
+    }
+  }
+
+  private static long set(long packed, int type, byte value) {
+    // rebuild the order without the type, which is then added last
+    int count = getCount(packed);
+    long order = 0;
+    int newCount = 0;
+    for (int i = 0; i < count; i++) {
+      int setType = getType(packed, i);
+      if (setType != type) {
+        order |= (long) setType << (ORDER_SHIFT + 2 * newCount++);
+      }
+    }
+    order |= (long) type << (ORDER_SHIFT + 2 * newCount++);
+
+    long values = packed & 0xFFFFFFFFL & ~(0xFFL << 8 * type) | (value & 0xFFL) << 8 * type;
+    return (packed & RESET) | (long) newCount << COUNT_SHIFT | order | values;
+  }
+
+  private static int getCount(long packed) {
+    return (int) (packed >> COUNT_SHIFT) & 0x07;
+  }
+
+  private static int getType(long packed, int index) {
+    return (int) (packed >> (ORDER_SHIFT + 2 * index)) & 0x03;
+  }
+
+  private static byte getValue(long packed, int type) {
+    return (byte) (packed >> 8 * type);
+  }
+
+  static ScreenContext apply(long packed, ScreenContext defaultContext,
+      ScreenContext currentContext) {
+    ScreenContext context = (packed & RESET) != 0 ? defaultContext : currentContext;
+    for (int i = 0, count = getCount(packed); i < count; i++) {
+      int type = getType(packed, i);
+      byte value = getValue(packed, type);
+      switch (type) {
+        case FOREGROUND:
+          context = context.withForeground(ColorAttribute.COLORS[value & 0x0F]);
+          break;
+        case BACKGROUND:
+          context = context.withBackgroundColor(ColorAttribute.COLORS[value & 0x0F]);
+          break;
+        case HIGHLIGHT:
+          context = context.withHighlight(value);
+          break;
+        default:
+          context = context.withGraphic(value == APL_CHARSET_VALUE);
+          break;
+      }
+    }
+    return context;
+  }
+
+  // only used when the attributes have to be sent back to the host or displayed
+  static List<Attribute> toList(long packed) {
+    List<Attribute> attributes = new ArrayList<>();
+    if (packed == NONE) {
+      return attributes;
+    }
+
+    if ((packed & RESET) != 0) {
+      attributes.add(new ResetAttribute((byte) 0));
+    }
+    for (int i = 0, count = getCount(packed); i < count; i++) {
+      int type = getType(packed, i);
+      byte value = getValue(packed, type);
+      switch (type) {
+        case FOREGROUND:
+          attributes.add(new ForegroundColor(value));
+          break;
+        case BACKGROUND:
+          attributes.add(new BackgroundColor(value));
+          break;
+        case HIGHLIGHT:
+          attributes.add(new ExtendedHighlight(value));
+          break;
+        default:
+          attributes.add(new Charset(value));
+          break;
+      }
+    }
+    return attributes;
+  }
+
+}
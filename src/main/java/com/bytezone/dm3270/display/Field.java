@@ -1,15 +1,24 @@
 package com.bytezone.dm3270.display;
 
+import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
 import java.awt.Color;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Range of positions of a {@link ScreenBuffer}, from the position of its start field attribute
+ * to the last data position, which wraps around the end of the screen for the last field.
+ * <p>
+ * The field reads and writes the buffer directly, so it is always up to date with the screen
+ * and {@link ScreenPosition} views are only created when iterating. Its text is kept until the
+ * generation of the buffer changes.
+ */
 public class Field implements Iterable<ScreenPosition> {
 
   private static final Logger LOG = LoggerFactory.getLogger(Field.class);
@@ -22,10 +31,28 @@ public class Field implements Iterable<ScreenPosition> {
   private Field next;
 
   private final StartFieldAttribute startFieldAttribute;
-  private final List<ScreenPosition> screenPositions;
+  private final ScreenBuffer buffer;
+  private final int firstIndex;           // index of the start field attribute in the buffer
+  private final int length;               // start field attribute included
   private final ScreenDimensions screenDimensions;
   private boolean isCircular;
+  private volatile CachedText cachedText;
 
+  // created by FieldManager
+  Field(Screen screen, ScreenBuffer buffer, int startPosition, int endPosition) {
+    this.screen = screen;
+    this.screenDimensions = screen.getScreenDimensions();
+    this.buffer = buffer;
+    this.startPosition = startPosition;
+    this.endPosition = endPosition;
+
+    firstIndex = startPosition;
+    length = endPosition >= startPosition ? endPosition - startPosition + 1
+        : buffer.size() - startPosition + endPosition + 1;
+    startFieldAttribute = buffer.getStartFieldAttribute(startPosition);
+  }
+
+  // the positions are copied, unless they are a range of the same buffer
   public Field(Screen screen, List<ScreenPosition> positions) {
     this.screen = screen;
     this.screenDimensions = screen.getScreenDimensions();
@@ -33,11 +60,45 @@ public class Field implements Iterable<ScreenPosition> {
     ScreenPosition firstScreenPosition = positions.get(0);
     ScreenPosition lastScreenPosition = positions.get(positions.size() - 1);
 
-    screenPositions = new ArrayList<>(positions);
     startFieldAttribute = firstScreenPosition.getStartFieldAttribute();
-
     startPosition = firstScreenPosition.getPosition();
     endPosition = lastScreenPosition.getPosition();
+    length = positions.size();
+
+    if (isBufferRange(positions)) {
+      buffer = firstScreenPosition.getBuffer();
+      firstIndex = firstScreenPosition.getIndex();
+    } else {
+      buffer = new ScreenBuffer(length, firstScreenPosition.getBuffer().getCharset());
+      firstIndex = 0;
+      for (int i = 0; i < length; i++) {
+        ScreenPosition screenPosition = positions.get(i);
+        buffer.setChar(i, screenPosition.getByte());
+        buffer.setScreenContext(i, screenPosition.getScreenContext());
+        buffer.setStartField(i, screenPosition.getStartFieldAttribute());
+        for (Attribute attribute : screenPosition.getAttributes()) {
+          buffer.addAttribute(i, attribute);
+        }
+      }
+    }
+  }
+
+  private static boolean isBufferRange(List<ScreenPosition> positions) {
+    ScreenBuffer buffer = positions.get(0).getBuffer();
+    int index = positions.get(0).getIndex();
+    for (ScreenPosition screenPosition : positions) {
+      if (screenPosition.getBuffer() != buffer || screenPosition.getIndex() != index) {
+        return false;
+      }
+      index = index + 1 == buffer.size() ? 0 : index + 1;
+    }
+    return true;
+  }
+
+  // buffer index of a position of this field, 0 being the start field attribute
+  private int indexOf(int offset) {
+    int index = firstIndex + offset;
+    return index < buffer.size() ? index : index - buffer.size();
   }
 
   // link two unprotected fields to each other
@@ -57,7 +118,7 @@ public class Field implements Iterable<ScreenPosition> {
   }
 
   public int getDisplayLength() {
-    return screenPositions.size() - 1;
+    return length - 1;
   }
 
   public int getFirstLocation() {
@@ -124,8 +185,8 @@ public class Field implements Iterable<ScreenPosition> {
   }
 
   public void erase() {
-    for (int i = 1; i < screenPositions.size(); i++) {
-      screenPositions.get(i).setChar((byte) 0);
+    for (int i = 1; i < length; i++) {
+      buffer.setChar(indexOf(i), (byte) 0);
     }
     setModified(true);
   }
@@ -136,25 +197,24 @@ public class Field implements Iterable<ScreenPosition> {
       setModified(true);
     }
 
-    for (int i = 1; i < screenPositions.size(); i++) {
-      screenPositions.get(i).setChar((byte) 0);         // leave screenContext
+    for (int i = 1; i < length; i++) {
+      buffer.setChar(indexOf(i), (byte) 0);         // leave screenContext
     }
   }
 
   // overwrites each position with the position to its left (insert)
   // called from Cursor.typeChar()
   public void push(int first, int last) {
-    ScreenPosition spLast = screenPositions.get(last);
     while (first < last) {
-      ScreenPosition sp = screenPositions.get(--last);
-      spLast.setChar(sp.getByte());
-      spLast.setScreenContext(sp.getScreenContext());
-      spLast = sp;
+      int to = indexOf(last);
+      int from = indexOf(--last);
+      buffer.setChar(to, buffer.getByte(from));
+      buffer.setScreenContext(to, buffer.getScreenContext(from));
     }
   }
 
   public byte getByteAt(int position) {
-    return screenPositions.get(position).getByte();
+    return buffer.getByte(indexOf(position));
   }
 
   public String getText() {
@@ -162,21 +222,34 @@ public class Field implements Iterable<ScreenPosition> {
       return "";
     }
 
-    char[] buffer = new char[getDisplayLength()];
+    long generation = buffer.getGeneration();
+    CachedText cached = cachedText;
+    if (cached != null && cached.generation == generation) {
+      return cached.text;
+    }
+    String text = buildText();
+    cachedText = new CachedText(generation, text);
+    return text;
+  }
+
+  private String buildText() {
+
+    char[] text = new char[getDisplayLength()];
     int ptr = 0;
 
-    for (ScreenPosition screenPosition : screenPositions) {
+    for (int i = 0; i < length; i++) {
+      int index = indexOf(i);
       // skip the start field attribute
-      if (!screenPosition.isStartField()) {
-        if (ptr < buffer.length) {
-          buffer[ptr++] = screenPosition.getChar();
+      if (!buffer.isStartField(index)) {
+        if (ptr < text.length) {
+          text[ptr++] = buffer.getChar(index);
         } else {
           LOG.warn("Too long: {}", ptr);
         }
       }
     }
 
-    return new String(buffer);
+    return new String(text);
   }
 
   public void setText(String text) {
@@ -188,11 +261,11 @@ public class Field implements Iterable<ScreenPosition> {
     }
   }
 
-  public void setText(byte[] buffer) {
+  public void setText(byte[] text) {
     int ptr = 1;
-    for (byte b : buffer) {
-      if (ptr < screenPositions.size()) {
-        screenPositions.get(ptr++).setChar(b);
+    for (byte b : text) {
+      if (ptr < length) {
+        buffer.setChar(indexOf(ptr++), b);
       } else {
         LOG.warn("Buffer overrun");
         break;
@@ -228,7 +301,23 @@ public class Field implements Iterable<ScreenPosition> {
 
   @Override
   public Iterator<ScreenPosition> iterator() {
-    return screenPositions.iterator();
+    return new Iterator<ScreenPosition>() {
+      private int offset = 0;
+
+      @Override
+      public boolean hasNext() {
+        return offset < length;
+      }
+
+      @Override
+      public ScreenPosition next() {
+        if (offset >= length) {
+          throw new NoSuchElementException();
+        }
+        int index = indexOf(offset++);
+        return new ScreenPosition(buffer, index, index + startPosition - firstIndex);
+      }
+    };
   }
 
   public int getEndPosition() {
@@ -238,4 +327,17 @@ public class Field implements Iterable<ScreenPosition> {
   public int getStartPosition() {
     return startPosition;
   }
+
+  private static final class CachedText {
+
+    private final long generation;
+    private final String text;
+
+    private CachedText(long generation, String text) {
+      this.generation = generation;
+      this.text = text;
+    }
+
+  }
+
 }
@@ -1,14 +1,23 @@
 package com.bytezone.dm3270.display;
 
-import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Divides the screen into fields after each write and answers queries about them.
+ * <p>
+ * All the work done for a screen runs on the thread that calls into this class (the one
+ * processing the session inbound data or the client thread), it never schedules tasks on shared
+ * pools such as the common {@link java.util.concurrent.ForkJoinPool}. This keeps the latency of
+ * one session independent from the load of all the other sessions running in the same JVM, so
+ * parallel streams must not be introduced here or in the classes this one calls.
+ */
 public class FieldManager {
 
   private final Screen screen;
@@ -17,8 +26,17 @@ public class FieldManager {
 
   private final List<Field> fields = new CopyOnWriteArrayList<>();
   private final List<Field> unprotectedFields = new ArrayList<>();
+  private volatile FieldIndex fieldIndex = FieldIndex.EMPTY;
 
   private final Set<ScreenChangeListener> screenChangeListeners = ConcurrentHashMap.newKeySet();
+  private final Set<ScreenChangeEventListener> screenChangeEventListeners =
+      ConcurrentHashMap.newKeySet();
+
+  // changes not notified yet, see fireScreenChanged()
+  private boolean changesPending;
+  private List<Field> fieldsBeforeChanges;          // null if no fields were added or removed
+  private int firstChanged = -1;
+  private int lastChanged = -1;
 
   public FieldManager(Screen screen, ScreenDimensions screenDimensions) {
     this.screen = screen;
@@ -32,23 +50,39 @@ public class FieldManager {
   }
 
   public void reset() {
+    recordChanges(-1, -1, true);
+    clearFields();
+  }
+
+  private void clearFields() {
     fields.clear();
     unprotectedFields.clear();
+    fieldIndex = FieldIndex.EMPTY;
   }
 
   // this is called after the pen and screen positions have been modified
-  public void buildFields(ScreenPosition[] screenPositions) {
-    reset();
+  public void buildFields(ScreenBuffer buffer) {
+    buildFields(buffer, 0, buffer.size() - 1);
+  }
+
+  // firstChanged and lastChanged are the range of positions written since the last build
+  public void buildFields(ScreenBuffer buffer, int firstChanged, int lastChanged) {
+    recordChanges(firstChanged, lastChanged, true);
+    clearFields();
 
     //to avoid inefficiency when coping and adding in a 
     // CopyOnWriteArrayList we use this list to add all at once;
     List<Field> auxFields = new ArrayList<>();
-    for (List<ScreenPosition> protoField : divide(screenPositions)) {
-      auxFields.add(new Field(screen, protoField));
-      setContexts(protoField);
+    int[] startPositions = findStartPositions(buffer);
+    for (int fieldNo = 0; fieldNo < startPositions.length; fieldNo++) {
+      int start = startPositions[fieldNo];
+      int end = getEndPosition(buffer, startPositions, fieldNo);
+      auxFields.add(new Field(screen, buffer, start, end));
+      setContexts(buffer, start, end);
     }
 
     fields.addAll(auxFields);
+    fieldIndex = new FieldIndex(auxFields, buffer.size());
     // link uprotected fields
     Field previousUnprotectedField = null;
 
@@ -81,7 +115,29 @@ public class FieldManager {
     }
     configureCircularField();
     screenWatcher.check();
-    fireScreenChanged(screenWatcher);
+  }
+
+  // Called instead of buildFields() when no start fields were added or removed, so the fields
+  // only need the contexts of the positions between firstChanged and lastChanged updated.
+  public void updateFields(ScreenBuffer buffer, int firstChanged, int lastChanged) {
+    recordChanges(firstChanged, lastChanged, false);
+    if (firstChanged >= 0) {
+      for (Field field : fields) {
+        if (overlaps(field, firstChanged, lastChanged)) {
+          setContexts(buffer, field.getStartPosition(), field.getEndPosition());
+        }
+      }
+    }
+    screenWatcher.check();
+  }
+
+  private static boolean overlaps(Field field, int first, int last) {
+    int start = field.getStartPosition();
+    int end = field.getEndPosition();
+    if (start <= end) {
+      return start <= last && end >= first;
+    }
+    return start <= last || end >= first;        // wraps around the end of the screen
   }
 
   private void configureCircularField() {
@@ -94,13 +150,8 @@ public class FieldManager {
     }
   }
 
-  private void addField(Field field) {
-    fields.add(field);
-  }
-
-  // should this be indexed?
   public Optional<Field> getFieldAt(int position) {
-    return fields.parallelStream().filter(f -> f.contains(position)).findAny();
+    return fieldIndex.getFieldAt(position);
   }
 
   public List<Field> getUnprotectedFields() {
@@ -116,9 +167,12 @@ public class FieldManager {
   }
 
   public Optional<Field> eraseAllUnprotected() {
-    unprotectedFields.parallelStream().forEach(f -> f.clearData(true));
+    for (int i = 0; i < unprotectedFields.size(); i++) {
+      unprotectedFields.get(i).clearData(true);
+    }
 
-    return unprotectedFields.stream().findFirst();
+    return unprotectedFields.isEmpty() ? Optional.empty()
+        : Optional.of(unprotectedFields.get(0));
   }
 
   // ---------------------------------------------------------------------------------//
@@ -190,8 +244,85 @@ public class FieldManager {
   // ScreenChangeListeners
   // ---------------------------------------------------------------------------------//
 
-  private void fireScreenChanged(ScreenWatcher screenWatcher) {
+  // merges the changes of the builds done since the last notification
+  private void recordChanges(int first, int last, boolean layoutChanged) {
+    if (!changesPending) {
+      changesPending = true;
+      firstChanged = -1;
+      lastChanged = -1;
+    }
+    if (layoutChanged && fieldsBeforeChanges == null) {
+      fieldsBeforeChanges = new ArrayList<>(fields);
+    }
+    if (first >= 0) {
+      firstChanged = firstChanged < 0 ? first : Math.min(firstChanged, first);
+      lastChanged = Math.max(lastChanged, last);
+    }
+  }
+
+  // Called by the screen once a write has been processed, so listeners see the final cursor
+  // location and keyboard status. Returns false if nothing was built since the last call.
+  boolean fireScreenChanged(int previousCursorLocation, int cursorLocation,
+      boolean keyboardLocked) {
+    if (!changesPending) {
+      return false;
+    }
+
     screenChangeListeners.forEach(listener -> listener.screenChanged(screenWatcher));
+    if (!screenChangeEventListeners.isEmpty()) {
+      ScreenChangeEvent event = buildScreenChangeEvent(previousCursorLocation, cursorLocation,
+          keyboardLocked);
+      screenChangeEventListeners.forEach(listener -> listener.screenChanged(event));
+    }
+
+    changesPending = false;
+    fieldsBeforeChanges = null;
+    return true;
+  }
+
+  // both lists of fields are sorted by start position
+  private ScreenChangeEvent buildScreenChangeEvent(int previousCursorLocation,
+      int cursorLocation, boolean keyboardLocked) {
+    List<Field> added = new ArrayList<>();
+    List<Field> removed = new ArrayList<>();
+    List<Field> modified = new ArrayList<>();
+
+    if (fieldsBeforeChanges == null) {
+      for (Field field : fields) {
+        if (firstChanged >= 0 && overlaps(field, firstChanged, lastChanged)) {
+          modified.add(field);
+        }
+      }
+    } else {
+      int ptr = 0;
+      for (Field field : fields) {
+        while (ptr < fieldsBeforeChanges.size()
+            && fieldsBeforeChanges.get(ptr).getStartPosition() < field.getStartPosition()) {
+          removed.add(fieldsBeforeChanges.get(ptr++));
+        }
+        Field previous = ptr < fieldsBeforeChanges.size() ? fieldsBeforeChanges.get(ptr) : null;
+        if (previous != null && previous.getStartPosition() == field.getStartPosition()
+            && previous.getEndPosition() == field.getEndPosition()) {
+          ptr++;
+          if (firstChanged >= 0 && overlaps(field, firstChanged, lastChanged)) {
+            modified.add(field);
+          }
+        } else {
+          if (previous != null && previous.getStartPosition() == field.getStartPosition()) {
+            removed.add(previous);
+            ptr++;
+          }
+          added.add(field);
+        }
+      }
+      removed.addAll(fieldsBeforeChanges.subList(ptr, fieldsBeforeChanges.size()));
+    }
+
+    int columns = screenDimensions.columns;
+    int firstRow = firstChanged < 0 ? -1 : firstChanged / columns;
+    int lastRow = firstChanged < 0 ? -1 : lastChanged / columns;
+    return new ScreenChangeEvent(screenWatcher, firstRow, lastRow, added, removed, modified,
+        previousCursorLocation, cursorLocation, keyboardLocked);
   }
 
   public void addScreenChangeListener(ScreenChangeListener listener) {
@@ -202,83 +333,119 @@ public class FieldManager {
     screenChangeListeners.remove(listener);
   }
 
+  public void addScreenChangeEventListener(ScreenChangeEventListener listener) {
+    screenChangeEventListeners.add(listener);
+  }
+
+  public void removeScreenChangeEventListener(ScreenChangeEventListener listener) {
+    screenChangeEventListeners.remove(listener);
+  }
+
   // ---------------------------------------------------------------------------------//
-  // Divide the ScreenPositions into fields
+  // Position to field index
   // ---------------------------------------------------------------------------------//
 
-  private static List<List<ScreenPosition>> divide(ScreenPosition[] screenPositions) {
-    List<List<ScreenPosition>> components = new ArrayList<>();
-    List<ScreenPosition> positions = new ArrayList<>();
+  // Replaced as a whole on every build, so readers on other threads always see the
+  // positions and the fields they point to from the same build.
+  private static final class FieldIndex {
 
-    boolean inField = false;
-    int ptr = 0;
+    private static final FieldIndex EMPTY = new FieldIndex(new ArrayList<>(), 0);
 
-    while (ptr < screenPositions.length) {
-      ScreenPosition screenPosition = screenPositions[ptr++];
+    private final short[] fieldNumbers;              // -1 if position is not in a field
+    private final List<Optional<Field>> fields;
 
-      // check for the start of a new field
-      if (screenPosition.isStartField()) {
-        if (inField) {
-          components.add(new ArrayList<>(positions));
-          positions.clear();
-        }
-        inField = true;
-      }
+    private FieldIndex(List<Field> fieldList, int screenSize) {
+      fieldNumbers = new short[screenSize];
+      Arrays.fill(fieldNumbers, (short) -1);
+      fields = new ArrayList<>(fieldList.size());
 
-      if (inField) {
-        positions.add(screenPosition);
+      for (Field field : fieldList) {
+        short fieldNo = (short) fields.size();
+        fields.add(Optional.of(field));
+
+        int position = field.getStartPosition();
+        while (true) {
+          fieldNumbers[position] = fieldNo;
+          if (position == field.getEndPosition()) {
+            break;
+          }
+          position = position + 1 == screenSize ? 0 : position + 1;
+        }
       }
     }
 
-    if (inField && !positions.isEmpty()) {
-      //check if is a circular screen position component
-      if (positions.get(0) == screenPositions[0] || !components.isEmpty() && !components.get(0)
-          .get(0).equals(screenPositions[0])) {
-        int circularUntil = !components.isEmpty() ? components.get(0).get(0).getPosition()
-            : positions.get(0).getPosition();
-        ptr = 0;
-        while (ptr < circularUntil) {
-          positions.add(screenPositions[ptr++]);
-        }
+    private Optional<Field> getFieldAt(int position) {
+      if (position < 0 || position >= fieldNumbers.length) {
+        return Optional.empty();
       }
-      components.add(new ArrayList<>(positions));
+      int fieldNo = fieldNumbers[position];
+      return fieldNo < 0 ? Optional.empty() : fields.get(fieldNo);
     }
 
-    return components;
   }
 
   // ---------------------------------------------------------------------------------//
-  // Process a field's ScreenPositions
+  // Divide the screen buffer into fields
   // ---------------------------------------------------------------------------------//
 
-  private void setContexts(List<ScreenPosition> positions) {
-    StartFieldAttribute startFieldAttribute = positions.get(0).getStartFieldAttribute();
-    ScreenContext defaultContext = startFieldAttribute.process(null, null);
+  private static int[] findStartPositions(ScreenBuffer buffer) {
+    int total = 0;
+    for (int i = 0; i < buffer.size(); i++) {
+      if (buffer.isStartField(i)) {
+        total++;
+      }
+    }
 
-    if (startFieldAttribute.isExtended()) {
-      setExtendedContext(defaultContext, positions);
-    } else {
-      positions.forEach(sp -> sp.setScreenContext(defaultContext));
+    int[] startPositions = new int[total];
+    int ptr = 0;
+    for (int i = 0; ptr < total; i++) {
+      if (buffer.isStartField(i)) {
+        startPositions[ptr++] = i;
+      }
     }
+    return startPositions;
+  }
 
+  // the last field wraps around to the first one, unless it is the only field
+  private static int getEndPosition(ScreenBuffer buffer, int[] startPositions, int fieldNo) {
+    if (fieldNo + 1 < startPositions.length) {
+      return startPositions[fieldNo + 1] - 1;
+    }
+    if (startPositions.length > 1 && startPositions[0] != 0) {
+      return startPositions[0] - 1;
+    }
+    return buffer.size() - 1;
   }
 
-  private void setExtendedContext(ScreenContext defaultContext,
-      List<ScreenPosition> positions) {
+  // ---------------------------------------------------------------------------------//
+  // Process a field's screen positions
+  // ---------------------------------------------------------------------------------//
+
+  private static void setContexts(ScreenBuffer buffer, int start, int end) {
+    StartFieldAttribute startFieldAttribute = buffer.getStartFieldAttribute(start);
+    ScreenContext defaultContext = startFieldAttribute.process(null, null);
+    boolean extended = startFieldAttribute.isExtended();
     boolean first = true;
     ScreenContext currentContext = defaultContext;
 
-    for (ScreenPosition screenPosition : positions) {
-      for (Attribute attribute : screenPosition.getAttributes()) {
-        currentContext =
-            attribute.process(defaultContext, currentContext);
+    int position = start;
+    while (true) {
+      if (extended) {
+        long attributes = buffer.getExtendedAttributes(position);
+        if (attributes != ExtendedAttributes.NONE) {
+          currentContext = ExtendedAttributes.apply(attributes, defaultContext, currentContext);
+        }
+        if (first) {
+          first = false;
+          defaultContext = currentContext;
+        }
       }
+      buffer.setScreenContext(position, currentContext);
 
-      if (first) {
-        first = false;
-        defaultContext = currentContext;
+      if (position == end) {
+        return;
       }
-      screenPosition.setScreenContext(currentContext);
+      position = position + 1 == buffer.size() ? 0 : position + 1;
     }
   }
 
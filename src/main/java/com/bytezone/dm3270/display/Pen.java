@@ -1,14 +1,12 @@
 package com.bytezone.dm3270.display;
 
-import com.bytezone.dm3270.Charset;
 import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
 
 public interface Pen extends Iterable<ScreenPosition> {
 
-  static Pen getInstance(ScreenPosition[] screenPositions, ScreenDimensions screenDimensions,
-      Charset charset) {
-    return new PenType1(screenPositions, screenDimensions, charset);
+  static Pen getInstance(ScreenBuffer buffer, ScreenDimensions screenDimensions) {
+    return new PenType1(buffer, screenDimensions);
   }
 
   void clearScreen();
@@ -39,4 +37,14 @@ public interface Pen extends Iterable<ScreenPosition> {
 
   Iterable<ScreenPosition> fromCurrentPosition();
 
+  // first and last positions modified since resetChanges(), -1 if none
+  int getFirstChangedPosition();
+
+  int getLastChangedPosition();
+
+  // whether start fields were added or removed since resetChanges()
+  boolean isFieldLayoutChanged();
+
+  void resetChanges();
+
 }
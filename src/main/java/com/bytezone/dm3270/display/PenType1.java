@@ -1,6 +1,5 @@
 package com.bytezone.dm3270.display;
 
-import com.bytezone.dm3270.Charset;
 import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
 import java.util.ArrayList;
@@ -13,43 +12,48 @@ class PenType1 implements Pen {
 
   private static final Logger LOG = LoggerFactory.getLogger(PenType1.class);
 
-  private final ScreenPosition[] screenPositions;   // owned by Screen
+  private static final Attribute APL_CHARSET =
+      new com.bytezone.dm3270.attributes.Charset((byte) 0xf1);
+
+  private final ScreenBuffer buffer;   // owned by Screen
 
   private int currentPosition;
   private boolean formattedScreen;
   private ScreenDimensions screenDimensions;
 
+  // changes since the fields were last built
+  private int firstChangedPosition = -1;
+  private int lastChangedPosition = -1;
+  private boolean fieldLayoutChanged = true;
+
   private final List<Attribute> pendingAttributes = new ArrayList<>();
 
   // created by Screen and HistoryScreen
-  PenType1(ScreenPosition[] screenPositions, ScreenDimensions screenDimensions,
-      Charset charset) {
-    this.screenPositions = screenPositions;
+  PenType1(ScreenBuffer buffer, ScreenDimensions screenDimensions) {
+    this.buffer = buffer;
     this.screenDimensions = screenDimensions;
-
-    for (int i = 0; i < screenPositions.length; i++) {
-      screenPositions[i] = new ScreenPosition(i, ScreenContext.DEFAULT_CONTEXT, charset);
-    }
   }
 
   @Override
   public void clearScreen() {
     currentPosition = 0;
-    for (ScreenPosition screenPosition : screenPositions) {
-      screenPosition.reset();
-    }
+    buffer.resetAll();
+    pendingAttributes.clear();
 
     formattedScreen = false;
+    fieldLayoutChanged = true;
+    markChanged(0);
+    markChanged(buffer.size() - 1);
   }
 
   @Override
   public void startField(StartFieldAttribute startFieldAttribute) {
     formattedScreen = true;
 
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-
-    screenPosition.reset();
-    screenPosition.setStartField(startFieldAttribute);
+    buffer.reset(currentPosition);
+    buffer.setStartField(currentPosition, startFieldAttribute);
+    fieldLayoutChanged = true;
+    markChanged(currentPosition);
 
     // sometimes a reset attribute is overwritten by a new SFA
     if (pendingAttributes.size() > 0) {
@@ -69,24 +73,41 @@ class PenType1 implements Pen {
 
   @Override
   public void writeGraphics(byte b) {
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-    screenPosition.reset();
-    screenPosition.setAplGraphicChar(b);
-    screenPosition.addAttribute(new com.bytezone.dm3270.attributes.Charset((byte) 0xf1));
+    resetPosition();
+    buffer.setAplGraphicChar(currentPosition, b);
+    buffer.addAttribute(currentPosition, APL_CHARSET);
     moveRight();
   }
 
   @Override
   public void write(byte b) {
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-    screenPosition.reset();
-    screenPosition.setChar(b);
+    resetPosition();
+    buffer.setChar(currentPosition, b);
     moveRight();
   }
 
-  private void applyAttributes(ScreenPosition screenPosition) {
+  // overwriting a start field removes it
+  private void resetPosition() {
+    if (buffer.isStartField(currentPosition)) {
+      fieldLayoutChanged = true;
+    }
+    buffer.reset(currentPosition);
+    markChanged(currentPosition);
+  }
+
+  private void markChanged(int position) {
+    if (firstChangedPosition < 0 || position < firstChangedPosition) {
+      firstChangedPosition = position;
+    }
+    if (position > lastChangedPosition) {
+      lastChangedPosition = position;
+    }
+  }
+
+  private void applyAttributes(int position) {
+    markChanged(position);
     for (Attribute attribute : pendingAttributes) {
-      screenPosition.addAttribute(attribute);
+      buffer.addAttribute(position, attribute);
     }
     pendingAttributes.clear();
   }
@@ -94,7 +115,7 @@ class PenType1 implements Pen {
   @Override
   public void moveRight() {
     if (pendingAttributes.size() > 0) {
-      applyAttributes(screenPositions[currentPosition]);
+      applyAttributes(currentPosition);
     }
 
     currentPosition = validate(currentPosition + 1);
@@ -103,7 +124,7 @@ class PenType1 implements Pen {
   @Override
   public void moveToNextLine() {
     if (pendingAttributes.size() > 0) {
-      applyAttributes(screenPositions[currentPosition]);
+      applyAttributes(currentPosition);
     }
     int currentRow = (currentPosition / screenDimensions.columns);
     currentPosition = validate((currentRow + 1) * screenDimensions.columns);
@@ -116,21 +137,17 @@ class PenType1 implements Pen {
       return;
     }
 
-    while (true) {
-      ScreenPosition screenPosition = screenPositions[currentPosition];
-      if (screenPosition.isStartField()) {
-        break;
-      }
-      screenPosition.setChar((byte) 0);
+    while (!buffer.isStartField(currentPosition)) {
+      buffer.setChar(currentPosition, (byte) 0);
+      markChanged(currentPosition);
       moveRight();
     }
   }
 
   @Override
   public void tab() {
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-    if (screenPosition.isStartField()
-        && !screenPosition.getStartFieldAttribute().isProtected()) {
+    if (buffer.isStartField(currentPosition)
+        && !buffer.getStartFieldAttribute(currentPosition).isProtected()) {
       currentPosition = validate(currentPosition + 1);
       return;
     }
@@ -142,8 +159,7 @@ class PenType1 implements Pen {
         currentPosition = 0;
         break;
       }
-      screenPosition = screenPositions[next];
-      if (!screenPosition.getStartFieldAttribute().isProtected()) {
+      if (!buffer.getStartFieldAttribute(next).isProtected()) {
         currentPosition = validate(next + 1);
         break;
       }
@@ -160,7 +176,7 @@ class PenType1 implements Pen {
         }
         LOG.debug("Unapplied attributes at {}: {}", currentPosition, attrs);
       }
-      applyAttributes(screenPositions[currentPosition]);
+      applyAttributes(currentPosition);
     }
     currentPosition = validate(position);
   }
@@ -169,9 +185,8 @@ class PenType1 implements Pen {
     int pos = position;
     while (true) {
       pos = validate(pos + 1);
-      ScreenPosition screenPosition = screenPositions[pos];
 
-      if (screenPosition.isStartField()) {
+      if (buffer.isStartField(pos)) {
         return pos;
       }
 
@@ -186,12 +201,13 @@ class PenType1 implements Pen {
 
   @Override
   public int validate(int position) {
+    int size = buffer.size();
     while (position < 0) {
-      position += screenPositions.length;
+      position += size;
     }
 
-    while (position >= screenPositions.length) {
-      position -= screenPositions.length;
+    while (position >= size) {
+      position -= size;
     }
 
     return position;
@@ -202,6 +218,28 @@ class PenType1 implements Pen {
     this.screenDimensions = screenDimensions;
   }
 
+  @Override
+  public int getFirstChangedPosition() {
+    return firstChangedPosition;
+  }
+
+  @Override
+  public int getLastChangedPosition() {
+    return lastChangedPosition;
+  }
+
+  @Override
+  public boolean isFieldLayoutChanged() {
+    return fieldLayoutChanged;
+  }
+
+  @Override
+  public void resetChanges() {
+    firstChangedPosition = -1;
+    lastChangedPosition = -1;
+    fieldLayoutChanged = false;
+  }
+
   @Override
   public Iterable<ScreenPosition> fromCurrentPosition() {
     return () ->
@@ -210,12 +248,12 @@ class PenType1 implements Pen {
 
           @Override
           public boolean hasNext() {
-            return screenPositions.length > pos;
+            return buffer.size() > pos;
           }
 
           @Override
           public ScreenPosition next() {
-            return screenPositions[pos++];
+            return buffer.getScreenPosition(pos++);
           }
 
           @Override
@@ -236,12 +274,12 @@ class PenType1 implements Pen {
 
       @Override
       public boolean hasNext() {
-        return screenPositions.length > pos;
+        return buffer.size() > pos;
       }
 
       @Override
       public ScreenPosition next() {
-        return screenPositions[pos++];
+        return buffer.getScreenPosition(pos++);
       }
 
       @Override
@@ -1,12 +1,14 @@
 package com.bytezone.dm3270.display;
 
 import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.ConnectionPhase;
 import com.bytezone.dm3270.application.ConsolePane;
 import com.bytezone.dm3270.application.KeyboardStatusChangedEvent;
 import com.bytezone.dm3270.application.KeyboardStatusListener;
 import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.commands.AIDCommand;
 import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.metrics.SessionMetrics;
 import com.bytezone.dm3270.orders.BufferAddress;
 import com.bytezone.dm3270.streams.TelnetState;
 import com.bytezone.dm3270.structuredfields.SetReplyModeSF;
@@ -25,9 +27,9 @@ public class Screen implements DisplayScreen {
       {Attribute.XA_HIGHLIGHTING, Attribute.XA_FGCOLOR, Attribute.XA_CHARSET,
           Attribute.XA_BGCOLOR, Attribute.XA_TRANSPARENCY};
 
-  private ScreenPosition[] screenPositions;
+  private final ScreenBuffer buffer;
   private final FieldManager fieldManager;
-  private ScreenPacker screenPacker;
+  private final ScreenPacker screenPacker;
 
   private final TelnetState telnetState;
   private final Charset charset;
@@ -35,7 +37,7 @@ public class Screen implements DisplayScreen {
   private final ScreenDimensions defaultScreenDimensions;
   private final ScreenDimensions alternateScreenDimensions;
 
-  private Pen pen;
+  private final Pen pen;
   private final Cursor cursor;
   private ScreenOption currentScreen;
   private boolean alarmSounded;
@@ -46,10 +48,14 @@ public class Screen implements DisplayScreen {
   private byte[] replyTypes = new byte[0];
 
   private int insertedCursorPosition = -1;
+  private int notifiedCursorLocation;
   private boolean keyboardLocked;
   private boolean insertMode;
   private boolean readModifiedAll = false;
 
+  private volatile ScreenText screenText;
+  private volatile ScreenSnapshot snapshot;
+
   private final Set<KeyboardStatusListener> keyboardChangeListeners = ConcurrentHashMap.newKeySet();
 
   public enum ScreenOption {
@@ -72,12 +78,16 @@ public class Screen implements DisplayScreen {
 
     fieldManager = new FieldManager(this, screenDimensions);
 
-    screenPositions = new ScreenPosition[screenDimensions.size];
-    pen = Pen.getInstance(screenPositions, screenDimensions, charset);
+    int capacity = alternateScreenDimensions == null ? defaultScreenDimensions.size
+        : Math.max(defaultScreenDimensions.size, alternateScreenDimensions.size);
+    buffer = new ScreenBuffer(capacity, charset);
+    buffer.setSize(screenDimensions.size);
+    pen = Pen.getInstance(buffer, screenDimensions);
 
     screenPacker = new ScreenPacker(pen, fieldManager, charset);
 
     setCurrentScreen(currentOption);
+    publishSnapshot();
   }
 
   public TelnetState getTelnetState() {
@@ -94,6 +104,7 @@ public class Screen implements DisplayScreen {
 
     pen.setScreenDimensions(screenDimensions);
     fieldManager.setScreenDimensions(screenDimensions);
+    screenPacker.setScreenDimensions(screenDimensions);
 
     BufferAddress.setScreenWidth(screenDimensions.columns);
   }
@@ -159,7 +170,22 @@ public class Screen implements DisplayScreen {
   }
 
   public void buildFields() {
-    fieldManager.buildFields(screenPositions);        // what about resetModified?
+    SessionMetrics metrics = telnetState.getMetrics();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+
+    // when the write only changed the contents of existing fields they are kept
+    if (pen.isFieldLayoutChanged() || fieldManager.size() == 0) {
+      fieldManager.buildFields(buffer, pen.getFirstChangedPosition(),
+          pen.getLastChangedPosition());        // what about resetModified?
+    } else {
+      fieldManager.updateFields(buffer, pen.getFirstChangedPosition(),
+          pen.getLastChangedPosition());
+    }
+    pen.resetChanges();
+
+    if (metrics.isEnabled()) {
+      metrics.fieldsBuilt(System.nanoTime() - start);
+    }
   }
 
   public void checkRecording() {
@@ -175,6 +201,12 @@ public class Screen implements DisplayScreen {
       insertedCursorPosition = -1;
       cursor.setVisible(true);
     }
+
+    // the screen is complete, so listeners are notified of the fields built since last draw
+    int cursorLocation = cursor.getLocation();
+    if (fieldManager.fireScreenChanged(notifiedCursorLocation, cursorLocation, keyboardLocked)) {
+      notifiedCursorLocation = cursorLocation;
+    }
   }
 
   public void setAID(byte aid) {
@@ -201,11 +233,118 @@ public class Screen implements DisplayScreen {
 
   public void setPositionText(int position, String text) {
     byte[] bytes = getTextBytes(text);
-    for (int i = 0; i < bytes.length && position + i < screenPositions.length; i++) {
-      screenPositions[position + i].setChar(bytes[i]);
+    for (int i = 0; i < bytes.length && position + i < buffer.size(); i++) {
+      buffer.setChar(position + i, bytes[i]);
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Screen text, kept until the screen buffer changes
+  // ---------------------------------------------------------------------------------//
+
+  /**
+   * Text of the screen with a newline after each row. The positions of hidden fields are
+   * returned as blanks.
+   */
+  public String getText() {
+    return getScreenText().text;
+  }
+
+  // same as getText() without the newlines, so string indexes are screen positions
+  public String getPositionsText() {
+    return getScreenText().positionsText;
+  }
+
+  public String getRowText(int row) {
+    return getScreenText().getRow(row);
+  }
+
+  /**
+   * Last snapshot published, it can be read from any thread.
+   */
+  public ScreenSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  // only called by the thread processing the session, once a record has been processed
+  public void publishSnapshot() {
+    long generation = buffer.getGeneration();
+    ScreenDimensions screenDimensions = getScreenDimensions();
+    ScreenSnapshot current = snapshot;
+    if (current == null || !current.matches(generation, screenDimensions, fieldManager, cursor,
+        keyboardLocked)) {
+      ScreenText text = getScreenText();
+      snapshot = new ScreenSnapshot(generation, screenDimensions, text.text, text.positionsText,
+          fieldManager, cursor, keyboardLocked);
     }
   }
 
+  private ScreenText getScreenText() {
+    long generation = buffer.getGeneration();
+    ScreenDimensions screenDimensions = getScreenDimensions();
+    ScreenText text = screenText;
+    if (text == null || text.generation != generation
+        || text.screenDimensions != screenDimensions) {
+      text = new ScreenText(generation, screenDimensions, buildPositionsText(screenDimensions));
+      screenText = text;
+    }
+    return text;
+  }
+
+  private String buildPositionsText(ScreenDimensions screenDimensions) {
+    int size = Math.min(screenDimensions.size, buffer.size());
+    char[] text = new char[size];
+    boolean visible = true;
+    for (int i = 0; i < size; i++) {
+      if (buffer.isStartField(i)) {
+        visible = buffer.getStartFieldAttribute(i).isVisible();
+      }
+      text[i] = visible ? buffer.getChar(i) : ' ';
+    }
+    return new String(text);
+  }
+
+  private static final class ScreenText {
+
+    private final long generation;
+    private final ScreenDimensions screenDimensions;
+    private final String positionsText;
+    private final String text;
+    private final String[] rows;               // created when requested
+
+    private ScreenText(long generation, ScreenDimensions screenDimensions,
+        String positionsText) {
+      this.generation = generation;
+      this.screenDimensions = screenDimensions;
+      this.positionsText = positionsText;
+
+      int columns = screenDimensions.columns;
+      StringBuilder builder = new StringBuilder(positionsText.length()
+          + positionsText.length() / columns);
+      for (int start = 0; start < positionsText.length(); start += columns) {
+        int end = Math.min(start + columns, positionsText.length());
+        builder.append(positionsText, start, end);
+        if (end - start == columns) {
+          builder.append('\n');
+        }
+      }
+      text = builder.toString();
+      rows = new String[screenDimensions.rows];
+    }
+
+    private String getRow(int row) {
+      String rowText = rows[row];
+      if (rowText == null) {
+        int columns = screenDimensions.columns;
+        int start = Math.min(row * columns, positionsText.length());
+        rowText = positionsText.substring(start, Math.min(start + columns, positionsText.length()));
+        rows[row] = rowText;
+      }
+      return rowText;
+    }
+
+  }
+
   // ---------------------------------------------------------------------------------//
   // DisplayScreen interface methods
   // ---------------------------------------------------------------------------------//
@@ -217,7 +356,7 @@ public class Screen implements DisplayScreen {
 
   @Override
   public ScreenPosition getScreenPosition(int position) {
-    return screenPositions[position];
+    return buffer.getScreenPosition(position);
   }
 
   @Override
@@ -231,10 +370,10 @@ public class Screen implements DisplayScreen {
       ScreenDimensions size = requestedScreenOption.equals(ScreenOption.DEFAULT)
           ? defaultScreenDimensions
           : alternateScreenDimensions;
-      screenPositions = new ScreenPosition[size.size];
-      pen = Pen.getInstance(screenPositions, size, charset);
+      buffer.setSize(size.size);
+      pen.setScreenDimensions(size);
+      pen.clearScreen();
 
-      screenPacker = new ScreenPacker(pen, fieldManager, charset);
       currentScreen = requestedScreenOption;
       sscpLuData = false;
       fieldManager.reset();
@@ -255,9 +394,24 @@ public class Screen implements DisplayScreen {
   // Convert screen contents to an AID command
   // ---------------------------------------------------------------------------------//
 
+  /**
+   * Sends the current AID and the modified fields to the server. They are encoded straight into
+   * a pooled buffer which is written to the session, without building a command.
+   */
+  public void sendModifiedFields() {
+    screenPacker.sendModifiedFields(currentAID, getScreenCursor().getLocation(), sscpLuData,
+        telnetState);
+  }
+
   public Command readModifiedFields() {
-    return screenPacker.readModifiedFields(currentAID, getScreenCursor().getLocation(),
-        readModifiedAll, sscpLuData);
+    SessionMetrics metrics = telnetState.getMetrics();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    Command command = screenPacker.readModifiedFields(currentAID,
+        getScreenCursor().getLocation(), readModifiedAll, sscpLuData);
+    if (metrics.isEnabled()) {
+      metrics.screenEncoded(System.nanoTime() - start);
+    }
+    return command;
   }
 
   public Command readModifiedFields(byte type) {
@@ -279,8 +433,14 @@ public class Screen implements DisplayScreen {
   }
 
   public AIDCommand readBuffer() {
-    return screenPacker.readBuffer(currentAID, getScreenCursor().getLocation(),
+    SessionMetrics metrics = telnetState.getMetrics();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    AIDCommand command = screenPacker.readBuffer(currentAID, getScreenCursor().getLocation(),
         replyMode, replyTypes);
+    if (metrics.isEnabled()) {
+      metrics.screenEncoded(System.nanoTime() - start);
+    }
+    return command;
   }
 
   // ---------------------------------------------------------------------------------//
@@ -305,6 +465,8 @@ public class Screen implements DisplayScreen {
     setAID(AIDCommand.NO_AID_SPECIFIED);
     cursor.setVisible(true);
     keyboardLocked = false;
+    telnetState.getResponseTimes().keyboardRestored();
+    telnetState.phaseReached(ConnectionPhase.KEYBOARD_UNLOCKED);
     fireKeyboardStatusChange("");
   }
 
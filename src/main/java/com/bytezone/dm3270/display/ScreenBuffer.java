@@ -0,0 +1,213 @@
+package com.bytezone.dm3270.display;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.attributes.Attribute;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Contents of all the positions of a screen kept in parallel arrays, instead of one object (and
+ * attribute list) per position.
+ * <p>
+ * The buffer is allocated once with room for the biggest screen of the session and the number of
+ * positions in use changes when the host switches between default and alternate screens.
+ * {@link ScreenPosition} instances are just views over one position of the buffer.
+ * <p>
+ * Every change increments the generation of the buffer, after the change is done, so text
+ * derived from the buffer can be cached until the generation changes.
+ */
+public final class ScreenBuffer {
+
+  // an ordered store is enough, there is one thread updating the screen at a time
+  private static final AtomicLongFieldUpdater<ScreenBuffer> GENERATION =
+      AtomicLongFieldUpdater.newUpdater(ScreenBuffer.class, "generation");
+
+  private final Charset charset;
+
+  private final byte[] chars;
+  private final long[] extendedAttributes;              // packed by ExtendedAttributes
+  private final ScreenContext[] screenContexts;
+  private final StartFieldAttribute[] startFields;      // null when not a start field
+  private int size;
+  private volatile long generation;
+
+  public ScreenBuffer(int capacity, Charset charset) {
+    this.charset = charset;
+    chars = new byte[capacity];
+    extendedAttributes = new long[capacity];
+    screenContexts = new ScreenContext[capacity];
+    startFields = new StartFieldAttribute[capacity];
+    size = capacity;
+    Arrays.fill(screenContexts, ScreenContext.DEFAULT_CONTEXT);
+    resetAll();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return chars.length;
+  }
+
+  public Charset getCharset() {
+    return charset;
+  }
+
+  public long getGeneration() {
+    return generation;
+  }
+
+  private void changed() {
+    GENERATION.lazySet(this, generation + 1);
+  }
+
+  // changes the number of positions in use, the pen clears the screen afterwards. The contexts
+  // of the other screen size are not kept, as if the positions were new.
+  void setSize(int size) {
+    if (size > chars.length) {
+      throw new IllegalArgumentException(
+          "Size " + size + " exceeds buffer capacity " + chars.length);
+    }
+    this.size = size;
+    Arrays.fill(screenContexts, ScreenContext.DEFAULT_CONTEXT);
+    changed();
+  }
+
+  public ScreenPosition getScreenPosition(int position) {
+    return new ScreenPosition(this, position);
+  }
+
+  void resetAll() {
+    for (int i = 0; i < size; i++) {
+      reset(i);
+    }
+  }
+
+  void reset(int position) {
+    chars[position] = 0;
+    screenContexts[position] = screenContexts[position].withGraphic(false);
+    startFields[position] = null;
+    extendedAttributes[position] = ExtendedAttributes.NONE;
+    changed();
+  }
+
+  byte getByte(int position) {
+    return chars[position];
+  }
+
+  void setChar(int position, byte value) {
+    chars[position] = value;
+    screenContexts[position] = screenContexts[position].withGraphic(false);
+    changed();
+  }
+
+  void setAplGraphicChar(int position, byte value) {
+    chars[position] = value;
+    screenContexts[position] = screenContexts[position].withGraphic(true);
+    changed();
+  }
+
+  ScreenContext getScreenContext(int position) {
+    return screenContexts[position];
+  }
+
+  void setScreenContext(int position, ScreenContext screenContext) {
+    if (screenContext == null) {
+      throw new IllegalArgumentException("ScreenContext cannot be null");
+    }
+    screenContexts[position] = screenContext;
+    changed();
+  }
+
+  boolean isStartField(int position) {
+    return startFields[position] != null;
+  }
+
+  StartFieldAttribute getStartFieldAttribute(int position) {
+    return startFields[position];
+  }
+
+  void setStartField(int position, StartFieldAttribute startFieldAttribute) {
+    if (startFieldAttribute == null && startFields[position] != null) {
+      extendedAttributes[position] = ExtendedAttributes.NONE;
+    }
+    startFields[position] = startFieldAttribute;
+    changed();
+  }
+
+  void addAttribute(int position, Attribute attribute) {
+    extendedAttributes[position] = ExtendedAttributes.add(extendedAttributes[position], attribute);
+    changed();
+  }
+
+  long getExtendedAttributes(int position) {
+    return extendedAttributes[position];
+  }
+
+  List<Attribute> getAttributes(int position) {
+    return ExtendedAttributes.toList(extendedAttributes[position]);
+  }
+
+  char getChar(int position) {
+    byte value = chars[position];
+    if (value == 0) {
+      return '\u0000';
+    }
+    if ((value & 0xC0) == 0) {
+      return ' ';
+    }
+
+    if (screenContexts[position].isGraphic()) {
+      return convertGraphicChar(value);
+    }
+
+    return charset.getChar(value);
+  }
+
+  String getCharString(int position) {
+    if (isStartField(position)) {
+      return " ";
+    }
+
+    byte value = chars[position];
+    if (screenContexts[position].isGraphic()) {
+      return String.valueOf(convertGraphicChar(value));
+    }
+
+    char ret = charset.getChar(value);
+    return ret < ' ' ? " " : String.valueOf(ret);
+  }
+
+  private static char convertGraphicChar(byte val) {
+    switch (val) {
+      case (byte) 0x85:
+        return '│';
+      case (byte) 0xA2:
+        return '─';
+      case (byte) 0xC4:
+        return '└';
+      case (byte) 0xC5:
+        return '┌';
+      case (byte) 0xC6:
+        return '├';
+      case (byte) 0xC7:
+        return '┴';
+      case (byte) 0xD3:
+        return '┼';
+      case (byte) 0xD4:
+        return '┘';
+      case (byte) 0xD5:
+        return '┐';
+      case (byte) 0xD6:
+        return '┤';
+      case (byte) 0xD7:
+        return '┬';
+      default:
+        return ' ';
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+package com.bytezone.dm3270.display;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a write from the host changed in the screen, notified once the write has been completely
+ * processed.
+ * <p>
+ * Changed rows are the ones between the first and the last positions written, so they may
+ * include rows whose text was not actually modified. Fields are compared by their positions: a
+ * field which is in the same place after the write is modified when any of its positions was
+ * written, otherwise it is removed and the field in its new place is added.
+ */
+public final class ScreenChangeEvent {
+
+  private final ScreenWatcher screenWatcher;
+  private final int firstChangedRow;
+  private final int lastChangedRow;
+  private final List<Field> addedFields;
+  private final List<Field> removedFields;
+  private final List<Field> modifiedFields;
+  private final int previousCursorLocation;
+  private final int cursorLocation;
+  private final boolean keyboardLocked;
+
+  ScreenChangeEvent(ScreenWatcher screenWatcher, int firstChangedRow, int lastChangedRow,
+      List<Field> addedFields, List<Field> removedFields, List<Field> modifiedFields,
+      int previousCursorLocation, int cursorLocation, boolean keyboardLocked) {
+    this.screenWatcher = screenWatcher;
+    this.firstChangedRow = firstChangedRow;
+    this.lastChangedRow = lastChangedRow;
+    this.addedFields = Collections.unmodifiableList(addedFields);
+    this.removedFields = Collections.unmodifiableList(removedFields);
+    this.modifiedFields = Collections.unmodifiableList(modifiedFields);
+    this.previousCursorLocation = previousCursorLocation;
+    this.cursorLocation = cursorLocation;
+    this.keyboardLocked = keyboardLocked;
+  }
+
+  public ScreenWatcher getScreenWatcher() {
+    return screenWatcher;
+  }
+
+  // whether any position or field was changed by the write
+  public boolean hasChanges() {
+    return firstChangedRow >= 0 || !addedFields.isEmpty() || !removedFields.isEmpty();
+  }
+
+  // -1 if no position was written
+  public int getFirstChangedRow() {
+    return firstChangedRow;
+  }
+
+  public int getLastChangedRow() {
+    return lastChangedRow;
+  }
+
+  public boolean isRowChanged(int row) {
+    return firstChangedRow >= 0 && row >= firstChangedRow && row <= lastChangedRow;
+  }
+
+  public List<Field> getAddedFields() {
+    return addedFields;
+  }
+
+  public List<Field> getRemovedFields() {
+    return removedFields;
+  }
+
+  public List<Field> getModifiedFields() {
+    return modifiedFields;
+  }
+
+  // location of the cursor when the previous change was notified
+  public int getPreviousCursorLocation() {
+    return previousCursorLocation;
+  }
+
+  public int getCursorLocation() {
+    return cursorLocation;
+  }
+
+  public boolean isCursorMoved() {
+    return previousCursorLocation != cursorLocation;
+  }
+
+  public boolean isKeyboardLocked() {
+    return keyboardLocked;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("rows: %d-%d, fields added: %d, removed: %d, modified: %d, "
+            + "cursor: %d->%d, keyboard locked: %s", firstChangedRow, lastChangedRow,
+        addedFields.size(), removedFields.size(), modifiedFields.size(), previousCursorLocation,
+        cursorLocation, keyboardLocked);
+  }
+
+}
@@ -0,0 +1,11 @@
+package com.bytezone.dm3270.display;
+
+/**
+ * Listener notified with what each write changed in the screen, for listeners which would
+ * otherwise read the whole screen again on every {@link ScreenChangeListener} notification.
+ */
+public interface ScreenChangeEventListener {
+
+  void screenChanged(ScreenChangeEvent event);
+
+}
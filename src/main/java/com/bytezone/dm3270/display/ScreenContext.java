@@ -5,38 +5,116 @@ import java.awt.Color;
 
 public class ScreenContext {
 
-  public static final ScreenContext DEFAULT_CONTEXT = new ScreenContext(ColorAttribute.COLORS[0],
+  public static final ScreenContext DEFAULT_CONTEXT = of(ColorAttribute.COLORS[0],
       ColorAttribute.COLORS[8], (byte) 0, false, false);
 
+  // key layout: foreground (4 bits), background (4 bits), highlight (5 bits), intensity, graphic
+  private static final int BACKGROUND_SHIFT = 4;
+  private static final int HIGHLIGHT_SHIFT = 8;
+  private static final int HIGH_INTENSITY = 1 << 13;
+  private static final int GRAPHIC = 1 << 14;
+  private static final int KEYS = 1 << 15;
+  private static final int NOT_CACHED = -1;
+
   public final Color foregroundColor;
   public final Color backgroundColor;
   public final byte highlight;
   public final boolean highIntensity;
   public final boolean isGraphic;
 
+  private final int key;
+
+  /**
+   * Creates a context which is not shared with anyone else. Prefer {@link #of}, which returns
+   * cached instances.
+   */
   public ScreenContext(Color foregroundColor, Color backgroundColor, byte highlight,
       boolean highIntensity, boolean isGraphic) {
+    this(foregroundColor, backgroundColor, highlight, highIntensity, isGraphic, NOT_CACHED);
+  }
+
+  private ScreenContext(Color foregroundColor, Color backgroundColor, byte highlight,
+      boolean highIntensity, boolean isGraphic, int key) {
     this.foregroundColor = foregroundColor;
     this.backgroundColor = backgroundColor;
     this.highlight = highlight;
     this.highIntensity = highIntensity;
     this.isGraphic = isGraphic;
+    this.key = key;
+  }
+
+  /**
+   * Returns the shared context with the given values.
+   * <p>
+   * There are only a few thousand combinations of the colors in {@link ColorAttribute#COLORS} and
+   * the valid highlight values, so every combination is created once and reused by all screens.
+   * Any other combination gets a new instance.
+   */
+  public static ScreenContext of(Color foregroundColor, Color backgroundColor, byte highlight,
+      boolean highIntensity, boolean isGraphic) {
+    int foreground = colorIndex(foregroundColor);
+    int background = colorIndex(backgroundColor);
+    int highlightIndex = highlightIndex(highlight);
+    if (foreground < 0 || background < 0 || highlightIndex < 0) {
+      return new ScreenContext(foregroundColor, backgroundColor, highlight, highIntensity,
+          isGraphic);
+    }
+
+    return Cache.get(foreground | background << BACKGROUND_SHIFT
+        | highlightIndex << HIGHLIGHT_SHIFT | (highIntensity ? HIGH_INTENSITY : 0)
+        | (isGraphic ? GRAPHIC : 0));
+  }
+
+  // colors are compared by identity, like ColorAttribute.getName() does
+  private static int colorIndex(Color color) {
+    for (int i = 0; i < ColorAttribute.COLORS.length; i++) {
+      if (ColorAttribute.COLORS[i] == color) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // 0x00 (default) and 0xF0 to 0xFF
+  private static int highlightIndex(byte highlight) {
+    if (highlight == 0) {
+      return 0;
+    }
+    return (highlight & 0xF0) == 0xF0 ? (highlight & 0x0F) + 1 : -1;
+  }
+
+  private static byte highlightValue(int highlightIndex) {
+    return highlightIndex == 0 ? 0 : (byte) (0xF0 | (highlightIndex - 1));
   }
 
   public ScreenContext withBackgroundColor(Color color) {
-    return new ScreenContext(foregroundColor, color, highlight, highIntensity, isGraphic);
+    if (color == backgroundColor) {
+      return this;
+    }
+    return of(foregroundColor, color, highlight, highIntensity, isGraphic);
   }
 
   public ScreenContext withHighlight(byte highlight) {
-    return new ScreenContext(foregroundColor, backgroundColor, highlight, highIntensity,
-        isGraphic);
+    if (highlight == this.highlight) {
+      return this;
+    }
+    return of(foregroundColor, backgroundColor, highlight, highIntensity, isGraphic);
   }
 
   public ScreenContext withForeground(Color color) {
-    return new ScreenContext(color, backgroundColor, highlight, highIntensity, isGraphic);
+    if (color == foregroundColor) {
+      return this;
+    }
+    return of(color, backgroundColor, highlight, highIntensity, isGraphic);
   }
 
   public ScreenContext withGraphic(boolean isGraphic) {
+    if (isGraphic == this.isGraphic) {
+      return this;
+    }
+    if (key != NOT_CACHED) {
+      return Cache.get(key ^ GRAPHIC);
+    }
     return new ScreenContext(foregroundColor, backgroundColor, highlight, highIntensity,
         isGraphic);
   }
@@ -52,4 +130,25 @@ public class ScreenContext {
   public boolean isGraphic() {
     return isGraphic;
   }
+
+  // Contexts are created the first time they are requested. Races only create duplicates of
+  // an immutable object, so no synchronization is needed.
+  private static final class Cache {
+
+    private static final ScreenContext[] CONTEXTS = new ScreenContext[KEYS];
+
+    private static ScreenContext get(int key) {
+      ScreenContext context = CONTEXTS[key];
+      if (context == null) {
+        context = new ScreenContext(ColorAttribute.COLORS[key & 0x0F],
+            ColorAttribute.COLORS[(key >> BACKGROUND_SHIFT) & 0x0F],
+            highlightValue((key >> HIGHLIGHT_SHIFT) & 0x1F), (key & HIGH_INTENSITY) != 0,
+            (key & GRAPHIC) != 0, key);
+        CONTEXTS[key] = context;
+      }
+      return context;
+    }
+
+  }
+
 }
@@ -3,21 +3,40 @@ package com.bytezone.dm3270.display;
 import com.bytezone.dm3270.Charset;
 import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.buffers.BufferPool;
 import com.bytezone.dm3270.commands.AIDCommand;
 import com.bytezone.dm3270.commands.Command;
 import com.bytezone.dm3270.extended.SscpLuDataCommand;
+import com.bytezone.dm3270.metrics.SessionMetrics;
 import com.bytezone.dm3270.orders.BufferAddress;
 import com.bytezone.dm3270.orders.Order;
+import com.bytezone.dm3270.streams.TelnetState;
 import com.bytezone.dm3270.structuredfields.SetReplyModeSF;
 import java.util.List;
 
+/**
+ * Packs the screen to be sent to the server.
+ * <p>
+ * The packer keeps no buffers, each call borrows one from the shared {@link BufferPool} which is
+ * big enough for the worst case of the current screen dimensions and reply mode.
+ */
 public class ScreenPacker {
 
-  private final byte[] buffer = new byte[8192];
+  private static final byte IAC = (byte) 0xFF;
+  private static final byte EOR = (byte) 0xEF;
+
+  // TN3270E header, with 0xFF bytes of the sequence number doubled, and IAC EOR
+  private static final int TELNET_OVERHEAD = 7 + 2;
+  // AID and cursor address
+  private static final int AID_LENGTH = 3;
+  // a reset and four extended attributes
+  private static final int MAX_ATTRIBUTES = 5;
 
   private Pen pen;
   private final FieldManager fieldManager;
   private final Charset charset;
+  private final BufferPool bufferPool = BufferPool.getDefault();
+  private ScreenDimensions screenDimensions;
 
   public ScreenPacker(Pen pen, FieldManager fieldManager, Charset charset) {
     this.pen = pen;
@@ -25,44 +44,160 @@ public class ScreenPacker {
     this.charset = charset;
   }
 
+  public void setScreenDimensions(ScreenDimensions screenDimensions) {
+    this.screenDimensions = screenDimensions;
+  }
+
   public Command readModifiedFields(byte currentAID, int cursorLocation,
       boolean readModifiedAll, boolean sscpLuData) {
-    // pack the AID
-    int ptr = 0;
+    byte[] buffer = bufferPool.acquire(getModifiedFieldsLength());
+    try {
+      // pack the AID
+      int ptr = 0;
 
-    // PA keys and the CLR key only return the AID byte
-    if (!readModifiedAll) {
-      if (currentAID == AIDCommand.AID_PA1 || currentAID == AIDCommand.AID_PA2
-          || currentAID == AIDCommand.AID_PA3 || currentAID == AIDCommand.AID_CLEAR) {
+      // PA keys and the CLR key only return the AID byte
+      if (!readModifiedAll) {
+        if (currentAID == AIDCommand.AID_PA1 || currentAID == AIDCommand.AID_PA2
+            || currentAID == AIDCommand.AID_PA3 || currentAID == AIDCommand.AID_CLEAR) {
+          buffer[ptr++] = currentAID;
+          return new AIDCommand(buffer, 0, ptr, charset);
+        }
+      }
+
+      if (!sscpLuData) {
+        // pack the cursor address
         buffer[ptr++] = currentAID;
-        return new AIDCommand(buffer, 0, ptr, charset);
+        BufferAddress ba = new BufferAddress(cursorLocation);
+        ptr = ba.packAddress(buffer, ptr);
+      }
+
+      if (!fieldManager.getFields().isEmpty()) {
+        // pack all modified fields
+        for (Field field : fieldManager.getFields()) {
+          if (field.isModified()) {
+            ptr = packField(field, buffer, ptr);
+          }
+        }
+      } else {
+        for (ScreenPosition sp : pen.fromCurrentPosition()) {
+          if (!sp.isNull()) {
+            buffer[ptr++] = sp.getByte();
+          }
+        }
+      }
+
+      return sscpLuData ? new SscpLuDataCommand(buffer, 0, ptr, charset)
+          : new AIDCommand(buffer, 0, ptr, charset);
+    } finally {
+      bufferPool.release(buffer);               // the commands copy what they need
+    }
+  }
+
+  /**
+   * Sends the reply to an AID exactly as the server expects it: the TN3270E header when the
+   * session uses it, the AID, the cursor address and the modified fields, with 0xFF bytes
+   * doubled, and IAC EOR.
+   * <p>
+   * Unlike {@link #readModifiedFields} no command is built, every byte is written once into a
+   * pooled buffer which is handed to the session. A {@link
+   * com.bytezone.dm3270.streams.NioTerminalServer} still copies it, see its write method.
+   */
+  public void sendModifiedFields(byte currentAID, int cursorLocation, boolean sscpLuData,
+      TelnetState telnetState) {
+    SessionMetrics metrics = telnetState.getMetrics();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    int sequence = telnetState.does3270Extended() ? telnetState.nextCommandHeaderSeq() : -1;
+
+    byte[] output = bufferPool.acquire(getModifiedFieldsLength() + TELNET_OVERHEAD);
+    try {
+      int length = encodeModifiedFields(output, currentAID, cursorLocation, sscpLuData,
+          sequence);
+      if (metrics.isEnabled()) {
+        metrics.screenEncoded(System.nanoTime() - start);
       }
+      telnetState.write(output, 0, length);
+    } finally {
+      bufferPool.release(output);
+    }
+  }
+
+  private int encodeModifiedFields(byte[] output, byte currentAID, int cursorLocation,
+      boolean sscpLuData, int sequence) {
+    int ptr = 0;
+
+    if (sequence >= 0) {
+      output[ptr++] = sscpLuData ? (byte) 0x07 : 0x00;      // data type
+      output[ptr++] = 0x00;                                 // request flag
+      output[ptr++] = 0x00;                                 // response flag
+      ptr = putTelnetByte(output, (byte) (sequence >> 8), ptr);
+      ptr = putTelnetByte(output, (byte) sequence, ptr);
+    }
+
+    // PA keys and the CLR key only return the AID byte
+    if (currentAID == AIDCommand.AID_PA1 || currentAID == AIDCommand.AID_PA2
+        || currentAID == AIDCommand.AID_PA3 || currentAID == AIDCommand.AID_CLEAR) {
+      output[ptr++] = currentAID;
+      return endRecord(output, ptr);
     }
 
     if (!sscpLuData) {
-      // pack the cursor address
-      buffer[ptr++] = currentAID;
+      // buffer addresses never contain 0xFF
+      output[ptr++] = currentAID;
       BufferAddress ba = new BufferAddress(cursorLocation);
-      ptr = ba.packAddress(buffer, ptr);
+      ptr = ba.packAddress(output, ptr);
     }
 
-    if (!fieldManager.getFields().isEmpty()) {
-      // pack all modified fields
-      for (Field field : fieldManager.getFields()) {
+    List<Field> fields = fieldManager.getFields();
+    if (!fields.isEmpty()) {
+      for (Field field : fields) {
         if (field.isModified()) {
-          ptr = packField(field, buffer, ptr);
+          ptr = encodeField(output, field, ptr);
         }
       }
     } else {
       for (ScreenPosition sp : pen.fromCurrentPosition()) {
         if (!sp.isNull()) {
-          buffer[ptr++] = sp.getByte();
+          ptr = putTelnetByte(output, sp.getByte(), ptr);
         }
       }
     }
 
-    return sscpLuData ? new SscpLuDataCommand(buffer, 0, ptr, charset)
-        : new AIDCommand(buffer, 0, ptr, charset);
+    return endRecord(output, ptr);
+  }
+
+  private int encodeField(byte[] output, Field field, int ptr) {
+    output[ptr++] = Order.SET_BUFFER_ADDRESS;
+    BufferAddress ba = new BufferAddress(field.getFirstLocation());
+    ptr = ba.packAddress(output, ptr);
+
+    int length = field.getDisplayLength();
+    for (int i = 1; i <= length; i++) {
+      byte b = field.getByteAt(i);
+      if (b != 0) {
+        ptr = putTelnetByte(output, b, ptr);          // suppress nulls
+      }
+    }
+
+    return ptr;
+  }
+
+  private int putTelnetByte(byte[] output, byte b, int ptr) {
+    output[ptr++] = b;
+    if (b == IAC) {
+      output[ptr++] = IAC;
+    }
+    return ptr;
+  }
+
+  private int endRecord(byte[] output, int ptr) {
+    output[ptr++] = IAC;
+    output[ptr++] = EOR;
+    return ptr;
+  }
+
+  // each position takes at most 3 bytes, as a SBA order or as a doubled 0xFF
+  private int getModifiedFieldsLength() {
+    return AID_LENGTH + 3 * screenDimensions.size;
   }
 
   private int packField(Field field, byte[] buffer, int ptr) {
@@ -83,25 +218,39 @@ public class ScreenPacker {
 
   public AIDCommand readBuffer(byte currentAID, int cursorLocation, byte replyMode,
       byte[] replyTypes) {
-    // pack the AID
-    int ptr = 0;
-    buffer[ptr++] = currentAID;
+    byte[] buffer = bufferPool.acquire(getReadBufferLength(replyMode));
+    try {
+      // pack the AID
+      int ptr = 0;
+      buffer[ptr++] = currentAID;
 
-    // pack the cursor address
-    BufferAddress ba = new BufferAddress(cursorLocation);
-    ptr = ba.packAddress(buffer, ptr);
+      // pack the cursor address
+      BufferAddress ba = new BufferAddress(cursorLocation);
+      ptr = ba.packAddress(buffer, ptr);
 
-    // pack every screen location
-    for (ScreenPosition sp : pen) {
-      if (sp.isStartField()) {
-        ptr = packStartPosition(sp, buffer, ptr, replyMode);
-        // don't suppress nulls
-      } else {
-        ptr = packDataPosition(sp, buffer, ptr, replyMode, replyTypes);
+      // pack every screen location
+      for (ScreenPosition sp : pen) {
+        if (sp.isStartField()) {
+          ptr = packStartPosition(sp, buffer, ptr, replyMode);
+          // don't suppress nulls
+        } else {
+          ptr = packDataPosition(sp, buffer, ptr, replyMode, replyTypes);
+        }
       }
+
+      return new AIDCommand(buffer, 0, ptr, charset);
+    } finally {
+      bufferPool.release(buffer);
     }
+  }
 
-    return new AIDCommand(buffer, 0, ptr, charset);
+  // a start field takes SFE with every attribute, a character in character mode takes a SA
+  // order for every attribute and a graphic escape
+  int getReadBufferLength(byte replyMode) {
+    int startFieldLength = replyMode == SetReplyModeSF.RM_FIELD ? 2
+        : 2 + 2 * (MAX_ATTRIBUTES + 1);
+    int dataLength = replyMode == SetReplyModeSF.RM_CHARACTER ? 2 + 3 * MAX_ATTRIBUTES : 2;
+    return AID_LENGTH + Math.max(startFieldLength, dataLength) * screenDimensions.size;
   }
 
   private int packStartPosition(ScreenPosition sp, byte[] buffer, int ptr,
@@ -3,64 +3,75 @@ package com.bytezone.dm3270.display;
 import com.bytezone.dm3270.Charset;
 import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
-import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * View over one position of a {@link ScreenBuffer}.
+ * <p>
+ * Instances are created on demand, so they should not be compared by identity.
+ */
 public final class ScreenPosition {
 
+  private final ScreenBuffer buffer;
+  private final int index;
   private final int position;
 
-  private StartFieldAttribute startFieldAttribute;
-  private final List<Attribute> attributes = new ArrayList<>();
-
-  private byte value;
-  private ScreenContext screenContext;
-  private final Charset charset;
-
+  // a position which is not part of any screen
   public ScreenPosition(int position, ScreenContext screenContext,
       Charset charset) {
+    this.buffer = new ScreenBuffer(1, charset);
+    this.index = 0;
     this.position = position;
-    this.screenContext = screenContext;
-    this.charset = charset;
+    buffer.setScreenContext(0, screenContext);
     reset();
   }
 
+  ScreenPosition(ScreenBuffer buffer, int position) {
+    this(buffer, position, position);
+  }
+
+  // a position stored at a different index, see Field
+  ScreenPosition(ScreenBuffer buffer, int index, int position) {
+    this.buffer = buffer;
+    this.index = index;
+    this.position = position;
+  }
+
+  ScreenBuffer getBuffer() {
+    return buffer;
+  }
+
+  int getIndex() {
+    return index;
+  }
+
   public void reset() {
-    value = 0;
-    screenContext = screenContext.withGraphic(false);
-    startFieldAttribute = null;
-    attributes.clear();
+    buffer.reset(index);
   }
 
   public void setChar(byte value) {
-    this.value = value;
-    screenContext = screenContext.withGraphic(false);
+    buffer.setChar(index, value);
   }
 
   public void setAplGraphicChar(byte value) {
-    this.value = value;
-    screenContext = screenContext.withGraphic(true);
+    buffer.setAplGraphicChar(index, value);
   }
 
   public StartFieldAttribute getStartFieldAttribute() {
-    return startFieldAttribute;
+    return buffer.getStartFieldAttribute(index);
   }
 
   public void setStartField(StartFieldAttribute startFieldAttribute) {
-    if (startFieldAttribute == null) {
-      if (this.startFieldAttribute != null) {
-        attributes.clear();
-      }
-    }
-    this.startFieldAttribute = startFieldAttribute;
+    buffer.setStartField(index, startFieldAttribute);
   }
 
   public void addAttribute(Attribute attribute) {
-    attributes.add(attribute);
+    buffer.addAttribute(index, attribute);
   }
 
+  // a copy of the attributes set on this position
   public List<Attribute> getAttributes() {
-    return attributes;
+    return buffer.getAttributes(index);
   }
 
   public int getPosition() {
@@ -69,96 +80,61 @@ public final class ScreenPosition {
 
   // All the colour and highlight options
   public void setScreenContext(ScreenContext screenContext) {
-    if (screenContext == null) {
-      throw new IllegalArgumentException("ScreenContext cannot be null");
-    }
-    this.screenContext = screenContext;
+    buffer.setScreenContext(index, screenContext);
   }
 
   public ScreenContext getScreenContext() {
-    return screenContext;
+    return buffer.getScreenContext(index);
   }
 
   public boolean isStartField() {
-    return startFieldAttribute != null;
+    return buffer.isStartField(index);
   }
 
   public boolean isGraphic() {
-    return screenContext.isGraphic();
+    return buffer.getScreenContext(index).isGraphic();
   }
 
   public char getChar() {
-    if (value == 0) {
-      return '\u0000';
-    }
-    if ((value & 0xC0) == 0) {
-      return ' ';
-    }
-
-    if (screenContext.isGraphic()) {
-      return convertGraphicChar(value);
-    }
-
-    return charset.getChar(value);
-  }
-
-  private static char convertGraphicChar(byte val) {
-    switch (val) {
-      case (byte) 0x85:
-        return '│';
-      case (byte) 0xA2:
-        return '─';
-      case (byte) 0xC4:
-        return '└';
-      case (byte) 0xC5:
-        return '┌';
-      case (byte) 0xC6:
-        return '├';
-      case (byte) 0xC7:
-        return '┴';
-      case (byte) 0xD3:
-        return '┼';
-      case (byte) 0xD4:
-        return '┘';
-      case (byte) 0xD5:
-        return '┐';
-      case (byte) 0xD6:
-        return '┤';
-      case (byte) 0xD7:
-        return '┬';
-      default:
-        return ' ';
-    }
+    return buffer.getChar(index);
   }
 
   public String getCharString() {
-    if (isStartField()) {
-      return " ";
-    }
-
-    if (screenContext.isGraphic()) {
-      return String.valueOf(convertGraphicChar(value));
-    }
-
-    char ret = charset.getChar(value);
-    return ret < ' ' ? " " : String.valueOf(ret);
+    return buffer.getCharString(index);
   }
 
   public byte getByte() {
-    return value;
+    return buffer.getByte(index);
   }
 
   public boolean isNull() {
-    return value == 0;
+    return buffer.getByte(index) == 0;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ScreenPosition that = (ScreenPosition) o;
+    return buffer == that.buffer && index == that.index;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(buffer) + index;
   }
 
   @Override
   public String toString() {
     StringBuilder text = new StringBuilder();
     if (isStartField()) {
-      text.append("..").append(startFieldAttribute);
+      text.append("..").append(getStartFieldAttribute());
     } else {
-      for (Attribute attribute : attributes) {
+      for (Attribute attribute : getAttributes()) {
         text.append("--").append(attribute);
       }
     }
@@ -0,0 +1,187 @@
+package com.bytezone.dm3270.display;
+
+import java.awt.Point;
+import java.util.Optional;
+
+/**
+ * Immutable copy of the screen, published by the thread processing the session after each record
+ * received from the host has been processed. Changes made through
+ * {@link com.bytezone.dm3270.TerminalClient}, like setting field text or moving the cursor, are
+ * not published until the host sends the next record.
+ * <p>
+ * Any thread can read a snapshot without locks and without seeing a screen that is being
+ * updated, unlike {@link Screen} and its fields which are modified by the thread processing the
+ * session. The fields are kept as a table indexed by field number, in start position order.
+ */
+public final class ScreenSnapshot {
+
+  private static final byte PROTECTED = 0x01;
+  private static final byte HIDDEN = 0x02;
+  private static final byte MODIFIED = 0x04;
+  private static final byte NUMERIC = 0x08;
+
+  private final long generation;
+  private final ScreenDimensions screenDimensions;
+  private final String text;                 // hidden fields as blanks, newline after each row
+  private final String positionsText;        // same as text without newlines
+
+  private final int[] fieldStarts;
+  private final int[] fieldEnds;
+  private final byte[] fieldFlags;
+  private final String[] fieldTexts;
+
+  private final int cursorLocation;
+  private final boolean cursorVisible;
+  private final boolean keyboardLocked;
+
+  ScreenSnapshot(long generation, ScreenDimensions screenDimensions, String text,
+      String positionsText, FieldManager fieldManager, Cursor cursor, boolean keyboardLocked) {
+    this.generation = generation;
+    this.screenDimensions = screenDimensions;
+    this.text = text;
+    this.positionsText = positionsText;
+
+    int totalFields = fieldManager.size();
+    fieldStarts = new int[totalFields];
+    fieldEnds = new int[totalFields];
+    fieldFlags = new byte[totalFields];
+    fieldTexts = new String[totalFields];
+    int fieldNo = 0;
+    for (Field field : fieldManager.getFields()) {
+      if (fieldNo == totalFields) {
+        break;
+      }
+      fieldStarts[fieldNo] = field.getStartPosition();
+      fieldEnds[fieldNo] = field.getEndPosition();
+      fieldFlags[fieldNo] = getFlags(field);
+      fieldTexts[fieldNo] = field.getText();
+      fieldNo++;
+    }
+
+    cursorLocation = cursor.getLocation();
+    cursorVisible = cursor.isVisible();
+    this.keyboardLocked = keyboardLocked;
+  }
+
+  private static byte getFlags(Field field) {
+    return (byte) ((field.isProtected() ? PROTECTED : 0) | (field.isHidden() ? HIDDEN : 0)
+        | (field.isModified() ? MODIFIED : 0) | (field.isAlphanumeric() ? 0 : NUMERIC));
+  }
+
+  // whether publishing the screen again would produce the same snapshot
+  boolean matches(long generation, ScreenDimensions screenDimensions, FieldManager fieldManager,
+      Cursor cursor, boolean keyboardLocked) {
+    if (this.generation != generation || this.screenDimensions != screenDimensions
+        || cursorLocation != cursor.getLocation() || cursorVisible != cursor.isVisible()
+        || this.keyboardLocked != keyboardLocked || fieldFlags.length != fieldManager.size()) {
+      return false;
+    }
+    // the fields are built after the screen buffer changes, and the modified flags change
+    // without changing it
+    int fieldNo = 0;
+    for (Field field : fieldManager.getFields()) {
+      if (fieldNo == fieldFlags.length || fieldStarts[fieldNo] != field.getStartPosition()
+          || fieldEnds[fieldNo] != field.getEndPosition()
+          || fieldFlags[fieldNo] != getFlags(field)) {
+        return false;
+      }
+      fieldNo++;
+    }
+    return true;
+  }
+
+  /**
+   * Generation of the screen buffer this snapshot was taken from, two snapshots with the same
+   * generation have the same text and fields.
+   */
+  public long getGeneration() {
+    return generation;
+  }
+
+  public ScreenDimensions getScreenDimensions() {
+    return screenDimensions;
+  }
+
+  /**
+   * Same as {@link com.bytezone.dm3270.TerminalClient#getScreenText()}.
+   */
+  public String getText() {
+    return text;
+  }
+
+  public String getRowText(int row) {
+    int start = row * screenDimensions.columns;
+    return positionsText.substring(start, start + screenDimensions.columns);
+  }
+
+  public int getFieldCount() {
+    return fieldStarts.length;
+  }
+
+  // number of the field which contains the position, or -1 if there are no fields
+  public int getFieldAt(int position) {
+    for (int fieldNo = 0; fieldNo < fieldStarts.length; fieldNo++) {
+      int start = fieldStarts[fieldNo];
+      int end = fieldEnds[fieldNo];
+      if (start <= end ? position >= start && position <= end
+          : position >= start || position <= end) {
+        return fieldNo;
+      }
+    }
+    return -1;
+  }
+
+  // position of the start field attribute
+  public int getFieldStart(int fieldNo) {
+    return fieldStarts[fieldNo];
+  }
+
+  public int getFieldEnd(int fieldNo) {
+    return fieldEnds[fieldNo];
+  }
+
+  public String getFieldText(int fieldNo) {
+    return fieldTexts[fieldNo];
+  }
+
+  public boolean isFieldProtected(int fieldNo) {
+    return (fieldFlags[fieldNo] & PROTECTED) != 0;
+  }
+
+  public boolean isFieldHidden(int fieldNo) {
+    return (fieldFlags[fieldNo] & HIDDEN) != 0;
+  }
+
+  public boolean isFieldModified(int fieldNo) {
+    return (fieldFlags[fieldNo] & MODIFIED) != 0;
+  }
+
+  public boolean isFieldNumeric(int fieldNo) {
+    return (fieldFlags[fieldNo] & NUMERIC) != 0;
+  }
+
+  public int getCursorLocation() {
+    return cursorLocation;
+  }
+
+  /**
+   * Same as {@link com.bytezone.dm3270.TerminalClient#getCursorPosition()}.
+   */
+  public Optional<Point> getCursorPosition() {
+    int columns = screenDimensions.columns;
+    return cursorVisible
+        ? Optional.of(new Point(cursorLocation % columns + 1, cursorLocation / columns + 1))
+        : Optional.empty();
+  }
+
+  public boolean isKeyboardLocked() {
+    return keyboardLocked;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("generation: %d, fields: %d, cursor: %d, keyboard locked: %s",
+        generation, fieldStarts.length, cursorLocation, keyboardLocked);
+  }
+
+}
@@ -94,10 +94,16 @@ public class ScreenWatcher {
   }
 
   private boolean checkSplitScreen() {
-    return fieldManager.getFields().parallelStream()
-        .anyMatch(f -> f.isProtected() && f.getDisplayLength() == 79
-            && f.getFirstLocation() % screenDimensions.columns == 1
-            && SPLIT_LINE.equals(f.getText()));
+    List<Field> fields = fieldManager.getFields();
+    for (int i = 0; i < fields.size(); i++) {
+      Field field = fields.get(i);
+      if (field.isProtected() && field.getDisplayLength() == 79
+          && field.getFirstLocation() % screenDimensions.columns == 1
+          && SPLIT_LINE.equals(field.getText())) {
+        return true;
+      }
+    }
+    return false;
   }
 
   private boolean hasPromptField() {
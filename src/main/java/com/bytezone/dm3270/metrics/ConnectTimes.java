@@ -0,0 +1,194 @@
+package com.bytezone.dm3270.metrics;
+
+import com.bytezone.dm3270.ConnectionPhase;
+
+/**
+ * Time taken by each phase of establishing the connections of a session, from connecting until
+ * the first screen unlocks the keyboard.
+ * <p>
+ * The phases are the TCP connection, the TLS handshake (only when the connection is secured),
+ * the telnet negotiation until the first record is received, and the first screen until the
+ * keyboard is unlocked. Each phase is recorded as soon as it ends, so sessions which never get
+ * their first screen still tell where they got stuck.
+ * <p>
+ * Every session also records its times in {@link #getAggregate()}.
+ */
+public class ConnectTimes {
+
+  private static final ConnectTimes AGGREGATE = new ConnectTimes(null);
+
+  private final ConnectTimes aggregate;
+
+  private final LatencyHistogram tcpConnectTime = new LatencyHistogram();
+  private final LatencyHistogram tlsHandshakeTime = new LatencyHistogram();
+  private final LatencyHistogram negotiationTime = new LatencyHistogram();
+  private final LatencyHistogram firstScreenTime = new LatencyHistogram();
+  private final LatencyHistogram totalTime = new LatencyHistogram();
+
+  // nanoTime at the end of each phase of the connection being established, 0 when not reached
+  private volatile long connectStarted;
+  private volatile long socketConnected;
+  private volatile long tlsEstablished;
+  private volatile long firstRecordReceived;
+
+  public ConnectTimes() {
+    this(AGGREGATE);
+  }
+
+  private ConnectTimes(ConnectTimes aggregate) {
+    this.aggregate = aggregate;
+  }
+
+  /**
+   * Times of all the sessions in this JVM.
+   */
+  public static ConnectTimes getAggregate() {
+    return AGGREGATE;
+  }
+
+  /**
+   * Records the end of a phase of the connection, as notified by
+   * {@link com.bytezone.dm3270.streams.TelnetState#phaseReached(ConnectionPhase)}.
+   */
+  public void phaseReached(ConnectionPhase phase, long nanoTime) {
+    switch (phase) {
+      case CONNECTING:
+        connectStarted(nanoTime);
+        break;
+      case TCP_CONNECTED:
+        socketConnected(nanoTime);
+        break;
+      case TLS_ESTABLISHED:
+        tlsEstablished(nanoTime);
+        break;
+      case FIRST_RECORD_RECEIVED:
+        recordReceived(nanoTime);
+        break;
+      case KEYBOARD_UNLOCKED:
+        keyboardRestored(nanoTime);
+        break;
+      default:
+        break;                    // the TN3270E negotiation is part of the negotiation time
+    }
+  }
+
+  private void connectStarted(long now) {
+    socketConnected = 0;
+    tlsEstablished = 0;
+    firstRecordReceived = 0;
+    connectStarted = now;
+  }
+
+  private void socketConnected(long now) {
+    long started = connectStarted;
+    if (started == 0) {
+      return;
+    }
+    socketConnected = now;
+    recordTcpConnect(now - started);
+  }
+
+  private void tlsEstablished(long now) {
+    long connected = socketConnected;
+    if (connected == 0) {
+      return;
+    }
+    tlsEstablished = now;
+    recordTlsHandshake(now - connected);
+  }
+
+  private void recordReceived(long now) {
+    long connected = socketConnected;
+    if (connected == 0) {
+      return;
+    }
+    firstRecordReceived = now;
+    long secured = tlsEstablished;
+    recordNegotiation(now - (secured == 0 ? connected : secured));
+  }
+
+  private void keyboardRestored(long now) {
+    long started = connectStarted;
+    long firstRecord = firstRecordReceived;
+    if (started == 0 || firstRecord == 0) {
+      return;                     // unlocked before any screen
+    }
+    connectStarted = 0;
+    recordFirstScreen(now - firstRecord, now - started);
+  }
+
+  private void recordTcpConnect(long nanos) {
+    tcpConnectTime.recordNanos(nanos);
+    if (aggregate != null) {
+      aggregate.recordTcpConnect(nanos);
+    }
+  }
+
+  private void recordTlsHandshake(long nanos) {
+    tlsHandshakeTime.recordNanos(nanos);
+    if (aggregate != null) {
+      aggregate.recordTlsHandshake(nanos);
+    }
+  }
+
+  private void recordNegotiation(long nanos) {
+    negotiationTime.recordNanos(nanos);
+    if (aggregate != null) {
+      aggregate.recordNegotiation(nanos);
+    }
+  }
+
+  private void recordFirstScreen(long firstScreenNanos, long totalNanos) {
+    firstScreenTime.recordNanos(firstScreenNanos);
+    totalTime.recordNanos(totalNanos);
+    if (aggregate != null) {
+      aggregate.recordFirstScreen(firstScreenNanos, totalNanos);
+    }
+  }
+
+  /**
+   * Time from starting to connect until the socket was connected.
+   */
+  public LatencyHistogram getTcpConnectTime() {
+    return tcpConnectTime;
+  }
+
+  /**
+   * Time from the socket being connected until the TLS handshake finished.
+   */
+  public LatencyHistogram getTlsHandshakeTime() {
+    return tlsHandshakeTime;
+  }
+
+  /**
+   * Time from the connection being established, TLS included, until the first record was
+   * received, which is mostly spent in the telnet negotiation.
+   */
+  public LatencyHistogram getNegotiationTime() {
+    return negotiationTime;
+  }
+
+  /**
+   * Time from the first record received until the keyboard was unlocked.
+   */
+  public LatencyHistogram getFirstScreenTime() {
+    return firstScreenTime;
+  }
+
+  /**
+   * Time from starting to connect until the keyboard was unlocked.
+   */
+  public LatencyHistogram getTotalTime() {
+    return totalTime;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TCP connect ....... %s%n", tcpConnectTime)
+        + String.format("TLS handshake ..... %s%n", tlsHandshakeTime)
+        + String.format("Negotiation ....... %s%n", negotiationTime)
+        + String.format("First screen ...... %s%n", firstScreenTime)
+        + String.format("Total ............. %s%n", totalTime);
+  }
+
+}
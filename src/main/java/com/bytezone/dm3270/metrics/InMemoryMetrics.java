@@ -0,0 +1,115 @@
+package com.bytezone.dm3270.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SessionMetrics} kept in memory, to be scraped with {@link #getCounters()} and the
+ * histograms of the stages.
+ * <p>
+ * It can be used by one session or shared by any number of them, all the counters and
+ * histograms can be updated and read concurrently.
+ */
+public class InMemoryMetrics implements SessionMetrics {
+
+  private static final String COMMANDS_PREFIX = "commands.";
+
+  private final LongAdder reads = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder records = new LongAdder();
+  private final LongAdder recordBytes = new LongAdder();
+  private final LongAdder telnetCommands = new LongAdder();
+  private final Map<String, LongAdder> commands = new ConcurrentHashMap<>();
+
+  private final LatencyHistogram writeProcessing = new LatencyHistogram();
+  private final LatencyHistogram fieldBuilding = new LatencyHistogram();
+  private final LatencyHistogram screenEncoding = new LatencyHistogram();
+
+  @Override
+  public void bytesRead(int length) {
+    reads.increment();
+    bytesRead.add(length);
+  }
+
+  @Override
+  public void bytesWritten(int length) {
+    writes.increment();
+    bytesWritten.add(length);
+  }
+
+  @Override
+  public void recordReceived(int length) {
+    records.increment();
+    recordBytes.add(length);
+  }
+
+  @Override
+  public void telnetCommandReceived() {
+    telnetCommands.increment();
+  }
+
+  @Override
+  public void commandReceived(String name) {
+    commands.computeIfAbsent(name, key -> new LongAdder()).increment();
+  }
+
+  @Override
+  public void writeProcessed(long nanos) {
+    writeProcessing.recordNanos(nanos);
+  }
+
+  @Override
+  public void fieldsBuilt(long nanos) {
+    fieldBuilding.recordNanos(nanos);
+  }
+
+  @Override
+  public void screenEncoded(long nanos) {
+    screenEncoding.recordNanos(nanos);
+  }
+
+  /**
+   * Current value of every counter, sorted by name. Commands are counted as {@code
+   * commands.<name>}.
+   */
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new TreeMap<>();
+    counters.put("reads", reads.sum());
+    counters.put("bytes.read", bytesRead.sum());
+    counters.put("writes", writes.sum());
+    counters.put("bytes.written", bytesWritten.sum());
+    counters.put("records", records.sum());
+    counters.put("records.bytes", recordBytes.sum());
+    counters.put("telnet.commands", telnetCommands.sum());
+    commands.forEach((name, count) -> counters.put(COMMANDS_PREFIX + name, count.sum()));
+    return counters;
+  }
+
+  public LatencyHistogram getWriteProcessing() {
+    return writeProcessing;
+  }
+
+  public LatencyHistogram getFieldBuilding() {
+    return fieldBuilding;
+  }
+
+  public LatencyHistogram getScreenEncoding() {
+    return screenEncoding;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    getCounters().forEach((name, value) -> text.append(String.format("%-30s %,d%n", name,
+        value)));
+    text.append(String.format("%-30s %s%n", "write processing", writeProcessing));
+    text.append(String.format("%-30s %s%n", "field building", fieldBuilding));
+    text.append(String.format("%-30s %s%n", "screen encoding", screenEncoding));
+    return text.toString();
+  }
+
+}
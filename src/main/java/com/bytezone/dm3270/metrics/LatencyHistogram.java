@@ -0,0 +1,127 @@
+package com.bytezone.dm3270.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds with a fixed number of buckets, in the style of
+ * HdrHistogram.
+ * <p>
+ * Each power of two is divided into 16 buckets, so the values returned for percentiles are
+ * within 6.25% of the recorded ones, from 1 microsecond up to more than 38 hours (longer values
+ * are recorded as the maximum). Each histogram takes about 4 KB whatever the number of values.
+ * <p>
+ * Values can be recorded and read from any thread without locks.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 36;
+  private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+  private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1)
+      * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  public void recordNanos(long nanos) {
+    record(TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  public void record(long micros) {
+    long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    counts.incrementAndGet(getIndex(value));
+    totalCount.incrementAndGet();
+    totalMicros.addAndGet(value);
+
+    long max = maxMicros.get();
+    while (value > max && !maxMicros.compareAndSet(max, value)) {
+      max = maxMicros.get();
+    }
+  }
+
+  // adds the values recorded by another histogram
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = other.counts.get(i);
+      if (count > 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+    totalCount.addAndGet(other.totalCount.get());
+    totalMicros.addAndGet(other.totalMicros.get());
+
+    long otherMax = other.maxMicros.get();
+    long max = maxMicros.get();
+    while (otherMax > max && !maxMicros.compareAndSet(max, otherMax)) {
+      max = maxMicros.get();
+    }
+  }
+
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  public double getMeanMicros() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalMicros.get() / count;
+  }
+
+  /**
+   * Value below or at which the given percentage of the recorded values are, or 0 if nothing
+   * was recorded.
+   *
+   * @param percentile percentage between 0 and 100.
+   */
+  public long getValueAtPercentile(double percentile) {
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+    long accumulated = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      accumulated += counts.get(i);
+      if (accumulated >= target) {
+        return Math.min(getHighestValue(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  private static int getIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  private static long getHighestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+    long lowest = (long) (SUB_BUCKETS + subBucket) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count: %,d, mean: %,.0f us, p50: %,d us, p90: %,d us, p99: %,d us, "
+            + "max: %,d us", getCount(), getMeanMicros(), getValueAtPercentile(50),
+        getValueAtPercentile(90), getValueAtPercentile(99), getMaxMicros());
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.bytezone.dm3270.metrics;
+
+/**
+ * Host response times of a session, measured from each AID sent to the server until the server
+ * unlocks the keyboard.
+ * <p>
+ * Besides the whole response time, it records how long the server took to send the first bytes
+ * of the response and to send the record which unlocked the keyboard, so the time spent in the
+ * host can be told apart from the time spent transferring and processing the screen. AIDs sent
+ * while a previous one has not been answered restart the measure.
+ * <p>
+ * Every session also records its times in {@link #getAggregate()}.
+ */
+public class ResponseTimes {
+
+  private static final ResponseTimes AGGREGATE = new ResponseTimes(null);
+
+  private final ResponseTimes aggregate;
+
+  private final LatencyHistogram responseTime = new LatencyHistogram();
+  private final LatencyHistogram firstByteTime = new LatencyHistogram();
+  private final LatencyHistogram lastRecordTime = new LatencyHistogram();
+
+  // nanoTime of each event of the AID being answered, 0 when there is none
+  private volatile long aidSent;
+  private volatile long firstByteReceived;
+  private volatile long lastRecordReceived;
+
+  public ResponseTimes() {
+    this(AGGREGATE);
+  }
+
+  private ResponseTimes(ResponseTimes aggregate) {
+    this.aggregate = aggregate;
+  }
+
+  /**
+   * Times of all the sessions in this JVM.
+   */
+  public static ResponseTimes getAggregate() {
+    return AGGREGATE;
+  }
+
+  public void aidSent() {
+    firstByteReceived = 0;
+    lastRecordReceived = 0;
+    aidSent = System.nanoTime();
+  }
+
+  public void bytesReceived() {
+    if (aidSent != 0 && firstByteReceived == 0) {
+      firstByteReceived = System.nanoTime();
+    }
+  }
+
+  public void recordReceived() {
+    if (aidSent != 0) {
+      lastRecordReceived = System.nanoTime();
+    }
+  }
+
+  public void keyboardRestored() {
+    long sent = aidSent;
+    if (sent == 0) {
+      return;                     // unlocked without being asked, like the first screen
+    }
+    aidSent = 0;
+
+    long now = System.nanoTime();
+    long firstByte = firstByteReceived;
+    long lastRecord = lastRecordReceived;
+    record(now - sent, firstByte == 0 ? -1 : firstByte - sent,
+        lastRecord == 0 ? -1 : lastRecord - sent);
+  }
+
+  private void record(long responseNanos, long firstByteNanos, long lastRecordNanos) {
+    responseTime.recordNanos(responseNanos);
+    if (firstByteNanos >= 0) {
+      firstByteTime.recordNanos(firstByteNanos);
+    }
+    if (lastRecordNanos >= 0) {
+      lastRecordTime.recordNanos(lastRecordNanos);
+    }
+    if (aggregate != null) {
+      aggregate.record(responseNanos, firstByteNanos, lastRecordNanos);
+    }
+  }
+
+  /**
+   * Time from each AID sent until the keyboard was unlocked.
+   */
+  public LatencyHistogram getResponseTime() {
+    return responseTime;
+  }
+
+  /**
+   * Time from each AID sent until the first bytes of the response were received.
+   */
+  public LatencyHistogram getFirstByteTime() {
+    return firstByteTime;
+  }
+
+  /**
+   * Time from each AID sent until the record which unlocked the keyboard was received.
+   */
+  public LatencyHistogram getLastRecordTime() {
+    return lastRecordTime;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Response time ..... %s%n", responseTime)
+        + String.format("First byte ........ %s%n", firstByteTime)
+        + String.format("Last record ....... %s%n", lastRecordTime);
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.bytezone.dm3270.metrics;
+
+/**
+ * Receives what a session does in each stage of the telnet/3270 pipeline, to be plugged into
+ * any metrics library.
+ * <p>
+ * Methods are called from the threads of the session, so they should be short and must not
+ * block. By default sessions use {@link #NOOP}, which is not even asked for times, since the
+ * session does not read the clock when {@link #isEnabled()} returns false.
+ * <p>
+ * {@link InMemoryMetrics} keeps them in memory, and can be shared by many sessions.
+ */
+public interface SessionMetrics {
+
+  SessionMetrics NOOP = new SessionMetrics() {
+
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+
+  };
+
+  default boolean isEnabled() {
+    return true;
+  }
+
+  // one read from the socket
+  default void bytesRead(int length) {
+  }
+
+  // one write to the socket
+  default void bytesWritten(int length) {
+  }
+
+  // one record framed by the telnet processor, IAC EOR included
+  default void recordReceived(int length) {
+  }
+
+  // one telnet command or subcommand received
+  default void telnetCommandReceived() {
+  }
+
+  // one command received in a record, by name, like "Erase Write" or "BIND_IMAGE"
+  default void commandReceived(String name) {
+  }
+
+  // time to apply a write command to the screen, fields included
+  default void writeProcessed(long nanos) {
+  }
+
+  // time to build or update the fields after a write
+  default void fieldsBuilt(long nanos) {
+  }
+
+  // time to encode the screen to be sent to the server
+  default void screenEncoded(long nanos) {
+  }
+
+}
@@ -30,16 +30,7 @@ public class BufferAddress {
   public BufferAddress(byte b1, byte b2) {
     this.b1 = b1;
     this.b2 = b2;
-    int flag = b1 & 0xC0;       // top two bits
-
-    // using 14-bit method
-    if (flag == 0) {
-      location = (b1 & 0x3F) << 8;
-      location |= (b2 & 0xFF);
-    } else {
-      location = (b1 & 0x3F) << 6;
-      location |= (b2 & 0x3F);
-    }
+    location = getLocation(b1, b2);
   }
 
   public BufferAddress(int location) {
@@ -52,6 +43,17 @@ public class BufferAddress {
     columns = width;
   }
 
+  // decodes an address without creating a BufferAddress
+  public static int getLocation(byte b1, byte b2) {
+    int flag = b1 & 0xC0;       // top two bits
+
+    // using 14-bit method
+    if (flag == 0) {
+      return (b1 & 0x3F) << 8 | (b2 & 0xFF);
+    }
+    return (b1 & 0x3F) << 6 | (b2 & 0x3F);
+  }
+
   public int getLocation() {
     return location;
   }
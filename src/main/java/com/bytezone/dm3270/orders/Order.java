@@ -35,10 +35,27 @@ public abstract class Order {
           FCO_FORM_FEED, FCO_CARRIAGE_RETURN, FCO_NEWLINE, FCO_END_OF_MEDIUM,
           FCO_EIGHT_ONES};
 
+  private static final boolean[] ORDER_BYTES = new boolean[256];
+
+  static {
+    for (byte orderValue : orderValues) {
+      ORDER_BYTES[orderValue & 0xFF] = true;
+    }
+  }
+
   protected byte[] buffer;
   protected int duplicates;
 
+  // a single table lookup instead of comparing against every value in orderValues
+  public static boolean isOrder(byte value) {
+    return ORDER_BYTES[value & 0xFF];
+  }
+
   public static Order getOrder(byte[] buffer, int ptr, int max, Charset charset) {
+    if (!isOrder(buffer[ptr])) {
+      return new TextOrder(buffer, ptr, max, charset);
+    }
+
     switch (buffer[ptr]) {
       case START_FIELD:
         return new StartFieldOrder(buffer, ptr);
@@ -0,0 +1,197 @@
+package com.bytezone.dm3270.orders;
+
+import com.bytezone.dm3270.attributes.Attribute;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.display.DisplayScreen;
+import com.bytezone.dm3270.display.Pen;
+import com.bytezone.dm3270.display.Screen;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the orders of a write command to the screen while scanning them, instead of creating
+ * an {@link Order} for each one with {@link Order#getOrder}.
+ * <p>
+ * The screen must end up exactly as if the orders had been created and processed one after the
+ * other, so any change to the process method of an order has to be made here too. Only the
+ * attributes of fields are created, since the screen keeps them.
+ */
+public final class OrderDecoder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(OrderDecoder.class);
+
+  private OrderDecoder() {
+  }
+
+  public static void process(byte[] buffer, int offset, int max, DisplayScreen screen) {
+    Pen pen = screen.getPen();
+    boolean previousText = false;     // see ProgramTabOrder
+    int ptr = offset;
+
+    while (ptr < max) {
+      boolean text = false;
+      switch (buffer[ptr]) {
+        case Order.START_FIELD:
+          checkLength("SF", ptr, 2, max);
+          pen.startField(new StartFieldAttribute(buffer[ptr + 1]));
+          pen.moveRight();
+          ptr += 2;
+          break;
+
+        case Order.START_FIELD_EXTENDED:
+          ptr = startFieldExtended(buffer, ptr, max, pen);
+          break;
+
+        case Order.SET_BUFFER_ADDRESS:
+          checkLength("SBA", ptr, 3, max);
+          pen.moveTo(BufferAddress.getLocation(buffer[ptr + 1], buffer[ptr + 2]));
+          ptr += 3;
+          break;
+
+        case Order.SET_ATTRIBUTE:
+          checkLength("SA", ptr, 3, max);
+          addAttribute(buffer[ptr + 1], buffer[ptr + 2], pen);
+          ptr += 3;
+          break;
+
+        case Order.MODIFY_FIELD:
+          checkLength("MF", ptr, 2, max);
+          int modifyFieldLength = (buffer[ptr + 1] & 0xFF) * 2 + 2;
+          checkLength("MF", ptr, modifyFieldLength, max);
+          ptr += modifyFieldLength;
+          break;
+
+        case Order.INSERT_CURSOR:
+          screen.insertCursor(pen.getPosition());
+          ptr++;
+          break;
+
+        case Order.PROGRAM_TAB:
+          // if the previous data was text then erase the remainder of the field
+          if (previousText) {
+            pen.eraseEOF();
+          }
+          pen.tab();
+          ptr++;
+          break;
+
+        case Order.REPEAT_TO_ADDRESS:
+          ptr = repeatToAddress(buffer, ptr, max, screen);
+          break;
+
+        case Order.ERASE_UNPROTECTED:
+          checkLength("EUA", ptr, 3, max);
+          LOG.warn("EraseUnprotectedToAddress not finished");
+          ptr += 3;
+          break;
+
+        case Order.GRAPHICS_ESCAPE:
+          checkLength("GE", ptr, 2, max);
+          pen.writeGraphics(buffer[ptr + 1]);
+          ptr += 2;
+          break;
+
+        case Order.FCO_NULL:
+        case Order.FCO_SUBSTITUTE:
+        case Order.FCO_DUPLICATE:
+        case Order.FCO_FIELD_MARK:
+        case Order.FCO_FORM_FEED:
+        case Order.FCO_CARRIAGE_RETURN:
+        case Order.FCO_END_OF_MEDIUM:
+        case Order.FCO_EIGHT_ONES:
+          pen.write((byte) 0x40);
+          ptr++;
+          break;
+
+        case Order.FCO_NEWLINE:
+          pen.moveToNextLine();
+          ptr++;
+          break;
+
+        default:
+          pen.write(buffer[ptr++]);
+          while (ptr < max && !Order.isOrder(buffer[ptr])) {
+            pen.write(buffer[ptr++]);
+          }
+          text = true;
+      }
+      previousText = text;
+    }
+  }
+
+  // same as StartFieldExtendedOrder
+  private static int startFieldExtended(byte[] buffer, int offset, int max, Pen pen) {
+    checkLength("SFE", offset, 2, max);
+    int totalAttributePairs = buffer[offset + 1] & 0xFF;
+    int end = offset + 2 + totalAttributePairs * 2;
+    checkLength("SFE", offset, end - offset, max);
+
+    // There has to be a StartFieldAttribute, but it could be anywhere in the list
+    StartFieldAttribute startFieldAttribute = null;
+    for (int ptr = offset + 2; ptr < end; ptr += 2) {
+      if (buffer[ptr] == Attribute.XA_START_FIELD) {
+        startFieldAttribute = new StartFieldAttribute(buffer[ptr + 1]);
+      }
+    }
+
+    if (startFieldAttribute != null) {
+      startFieldAttribute.setExtended();
+      pen.startField(startFieldAttribute);
+    } else {
+      pen.startField(new StartFieldAttribute((byte) 0));
+    }
+
+    for (int ptr = offset + 2; ptr < end; ptr += 2) {
+      if (buffer[ptr] != Attribute.XA_START_FIELD) {
+        addAttribute(buffer[ptr], buffer[ptr + 1], pen);
+      }
+    }
+
+    pen.moveRight();
+    return end;
+  }
+
+  // the scan works on a view of a larger buffer, so reading past max would not fail but would
+  // take the bytes of whatever follows the record
+  private static void checkLength(String order, int offset, int length, int max) {
+    if (offset + length > max) {
+      throw new IllegalArgumentException(String.format(
+          "%s order at %d needs %d bytes but the record ends at %d", order, offset, length, max));
+    }
+  }
+
+  private static void addAttribute(byte attributeCode, byte attributeValue, Pen pen) {
+    Optional<Attribute> attribute = Attribute.getAttribute(attributeCode, attributeValue);
+    if (attribute.isPresent()) {
+      pen.addAttribute(attribute.get());
+    }
+  }
+
+  // same as RepeatToAddressOrder
+  private static int repeatToAddress(byte[] buffer, int offset, int max, DisplayScreen screen) {
+    checkLength("RA", offset, 4, max);
+    int stopLocation = BufferAddress.getLocation(buffer[offset + 1], buffer[offset + 2]);
+    byte rptChar;
+    int size;
+    if (buffer[offset + 3] == Order.GRAPHICS_ESCAPE) {
+      checkLength("RA", offset, 6, max);
+      rptChar = buffer[offset + 4];
+      size = 6;
+    } else {
+      rptChar = buffer[offset + 3];
+      size = 4;
+    }
+
+    Pen pen = screen.getPen();
+    if (pen.getPosition() == stopLocation) {
+      screen.clearScreen(((Screen) screen).getCurrentScreenOption());
+    } else {
+      while (pen.getPosition() != stopLocation) {
+        pen.write(rptChar);
+      }
+    }
+    return offset + size;
+  }
+
+}
@@ -17,18 +17,11 @@ public class TextOrder extends Order {
 
   private int getDataLength(byte[] buffer, int offset, int max) {
     int ptr = offset + 1;
-    int length = 1;
-    while (ptr < max) {
-      byte value = buffer[ptr++];
-      for (byte orderValue : orderValues) {
-        if (value == orderValue) {
-          return length;
-        }
-      }
-      length++;
+    while (ptr < max && !isOrder(buffer[ptr])) {
+      ptr++;
     }
 
-    return length;
+    return ptr - offset;
   }
 
   @Override
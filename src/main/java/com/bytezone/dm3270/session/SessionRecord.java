@@ -20,7 +20,9 @@ public class SessionRecord {
     TELNET, TN3270, TN3270E
   }
 
+  // records outlive the buffer the message was read into, so the message keeps its own copy
   public SessionRecord(ReplyBuffer message, TelnetSocket.Source source, LocalDateTime dateTime) {
+    message.getData();
     this.message = message;
     this.source = source;
     this.dateTime = dateTime;
@@ -7,6 +7,37 @@ public interface BufferListener {
   void listen(TelnetSocket.Source targetRole, byte[] message, LocalDateTime dateTime,
               boolean genuine);
 
+  /**
+   * Same as {@link #listen(TelnetSocket.Source, byte[], LocalDateTime, boolean)} for
+   * {@code length} bytes of {@code buffer} starting at {@code offset}. The caller reuses the
+   * buffer once this method returns, so listeners must copy anything they keep.
+   */
+  default void listen(TelnetSocket.Source targetRole, byte[] buffer, int offset, int length,
+      LocalDateTime dateTime, boolean genuine) {
+    byte[] message = new byte[length];
+    System.arraycopy(buffer, offset, message, 0, length);
+    listen(targetRole, message, dateTime, genuine);
+  }
+
+  /**
+   * Invoked by the transport when the socket connects, before any TLS handshake.
+   */
+  default void socketConnected() {
+  }
+
+  /**
+   * Invoked by the transport when the TLS handshake finishes, if the connection is secured.
+   */
+  default void tlsEstablished() {
+  }
+
+  /**
+   * Invoked by the transport when data can be exchanged with the server, before anything is
+   * read, so the listener may write first.
+   */
+  default void connected() {
+  }
+
   void close();
 
 }
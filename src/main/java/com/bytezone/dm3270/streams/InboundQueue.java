@@ -0,0 +1,258 @@
+package com.bytezone.dm3270.streams;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of the records received by a session, so the thread reading the socket only
+ * has to frame them and the screen is updated by a separate processing stage.
+ * <p>
+ * The records are processed one at a time and in the order they were received, by a task
+ * submitted to the executor whenever the queue stops being empty. So many sessions can share a
+ * thread pool without any of them processing two records at the same time. Each session needs
+ * its own queue.
+ */
+public class InboundQueue {
+
+  public static final int DEFAULT_CAPACITY = 64;
+
+  private static final Logger LOG = LoggerFactory.getLogger(InboundQueue.class);
+
+  /**
+   * What to do with a record received when the queue is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Reading from the socket stops until there is room, which lets TCP flow control slow down
+     * the server. A session with its own reader thread waits for room. A session served by a
+     * shared {@link NioEventLoop} can't, since the thread serves other sessions too. The record is
+     * queued anyway and the session is not read again until half the queue has been processed.
+     */
+    BLOCK,
+    /**
+     * The connection fails, and the error is notified to the connection listener.
+     */
+    FAIL
+  }
+
+  // not bounded, since sessions which can't wait for room add records beyond the capacity
+  private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final Executor executor;
+  private final AtomicBoolean draining = new AtomicBoolean();
+
+  private final ReentrantLock roomLock = new ReentrantLock();
+  private final Condition roomAvailable = roomLock.newCondition();
+  private volatile boolean waitingForRoom;
+
+  private TerminalTransport transport;                  // only set when reads can be suspended
+  private volatile boolean readingSuspended;
+
+  private final AtomicInteger maxDepth = new AtomicInteger();
+  private final AtomicLong processedCount = new AtomicLong();
+
+  public InboundQueue() {
+    this(DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+  }
+
+  /**
+   * Creates a queue processed by the threads of {@link #getDefaultExecutor()}.
+   */
+  public InboundQueue(int capacity, OverflowPolicy overflowPolicy) {
+    this(capacity, overflowPolicy, getDefaultExecutor());
+  }
+
+  public InboundQueue(int capacity, OverflowPolicy overflowPolicy, Executor executor) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.executor = executor;
+  }
+
+  /**
+   * Executor used by the queues created without one. It has one daemon thread per processor,
+   * created when records are waiting to be processed and terminated after being idle for a
+   * minute. Sessions whose listeners block for long should use their own executor, or they delay
+   * the sessions sharing this one.
+   */
+  public static ExecutorService getDefaultExecutor() {
+    return Holder.EXECUTOR;
+  }
+
+  // Set by the session when its transport delivers inbound data from a thread which must not
+  // wait, so reading is suspended instead while the queue is full.
+  void setTransport(TerminalTransport transport) {
+    this.transport = transport.hasSharedReader() ? transport : null;
+  }
+
+  void submit(Runnable task) {
+    if (queue.size() >= capacity) {
+      if (overflowPolicy == OverflowPolicy.FAIL) {
+        throw new IllegalStateException(
+            "Inbound queue full, " + queue.size() + " records waiting to be processed");
+      }
+      if (transport == null && !awaitRoom()) {
+        LOG.warn("Interrupted while waiting for room in the inbound queue, record discarded");
+        return;
+      }
+    }
+
+    queue.add(task);
+    int depth = queue.size();
+    updateMaxDepth(depth);
+    if (transport != null && depth >= capacity) {
+      suspendReading();
+    }
+    scheduleDrain();
+  }
+
+  private boolean awaitRoom() {
+    roomLock.lock();
+    try {
+      // set before checking, so the drain either sees it or has already made room
+      waitingForRoom = true;
+      while (queue.size() >= capacity) {
+        roomAvailable.await();
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      waitingForRoom = false;
+      roomLock.unlock();
+    }
+  }
+
+  // called for every record beyond the capacity, in case a late resume enabled reading again
+  private void suspendReading() {
+    readingSuspended = true;
+    transport.suspendReading();
+    // the drain may have made room before seeing the flag
+    if (queue.size() <= capacity / 2) {
+      resumeReading();
+    }
+  }
+
+  private void resumeReading() {
+    if (readingSuspended) {
+      readingSuspended = false;
+      transport.resumeReading();
+    }
+  }
+
+  private void roomMade() {
+    if (waitingForRoom) {
+      roomLock.lock();
+      try {
+        roomAvailable.signal();
+      } finally {
+        roomLock.unlock();
+      }
+    }
+    if (readingSuspended && queue.size() <= capacity / 2) {
+      resumeReading();
+    }
+  }
+
+  // discards the records of a closed connection
+  void clear() {
+    queue.clear();
+    roomMade();
+  }
+
+  private void updateMaxDepth(int depth) {
+    int max = maxDepth.get();
+    while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+      max = maxDepth.get();
+    }
+  }
+
+  private void scheduleDrain() {
+    if (draining.compareAndSet(false, true)) {
+      executor.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    Runnable task;
+    while ((task = queue.poll()) != null) {
+      roomMade();
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOG.error("Problem processing inbound record", e);
+      }
+      processedCount.incrementAndGet();
+    }
+    draining.set(false);
+
+    // a record may have been added after the last poll and before releasing the flag
+    if (!queue.isEmpty()) {
+      scheduleDrain();
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Number of records waiting to be processed, which may exceed the capacity by the records
+   * of one socket read when the session is served by a shared {@link NioEventLoop}.
+   */
+  public int getDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Biggest number of records that have been waiting to be processed at the same time.
+   */
+  public int getMaxDepth() {
+    return maxDepth.get();
+  }
+
+  public long getProcessedCount() {
+    return processedCount.get();
+  }
+
+  private static final class Holder {
+
+    private static final ExecutorService EXECUTOR = buildExecutor();
+
+    private static ExecutorService buildExecutor() {
+      AtomicInteger threadCount = new AtomicInteger();
+      ThreadFactory threadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "dm3270-inbound-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      int threads = Runtime.getRuntime().availableProcessors();
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(), threadFactory);
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+    }
+
+  }
+
+}
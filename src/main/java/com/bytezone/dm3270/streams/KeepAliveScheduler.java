@@ -0,0 +1,38 @@
+package com.bytezone.dm3270.streams;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Provides the executor shared by all {@link TelnetState} instances to send keep-alive NO_OPs.
+ * <p>
+ * Each session only keeps a pending task in the executor queue, so keeping thousands of idle
+ * sessions alive costs a single thread.
+ */
+public final class KeepAliveScheduler {
+
+  private KeepAliveScheduler() {
+  }
+
+  public static ScheduledExecutorService getDefault() {
+    return Holder.EXECUTOR;
+  }
+
+  // lazily creates the thread the first time a session needs it
+  private static final class Holder {
+
+    private static final ScheduledExecutorService EXECUTOR = buildExecutor();
+
+    private static ScheduledExecutorService buildExecutor() {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "dm3270-keep-alive");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.setRemoveOnCancelPolicy(true);
+      return executor;
+    }
+
+  }
+
+}
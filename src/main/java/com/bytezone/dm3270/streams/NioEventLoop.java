@@ -0,0 +1,173 @@
+package com.bytezone.dm3270.streams;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small set of selector threads shared by many {@link NioTerminalServer} sessions.
+ * <p>
+ * Each session is pinned to one thread for its whole life, so all its socket reads, TLS
+ * processing and {@link BufferListener#listen} calls happen on that thread. Listeners must
+ * therefore not block, or they will stall every other session served by the same thread.
+ */
+public class NioEventLoop implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NioEventLoop.class);
+
+  private static final long CONNECT_CHECK_MILLIS = 100;
+
+  private final Worker[] workers;
+  private final AtomicInteger nextWorker = new AtomicInteger();
+
+  public NioEventLoop() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public NioEventLoop(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Threads must be greater than zero");
+    }
+
+    workers = new Worker[threads];
+    try {
+      for (int i = 0; i < threads; i++) {
+        workers[i] = new Worker("dm3270-nio-" + i);
+      }
+    } catch (IOException e) {
+      close();
+      throw new IllegalStateException("Could not open selector", e);
+    }
+    for (Worker worker : workers) {
+      worker.thread.start();
+    }
+  }
+
+  Worker nextWorker() {
+    return workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+  }
+
+  /**
+   * Stops the threads of the loop, closing the sessions which are still open and notifying their
+   * {@link com.bytezone.dm3270.ConnectionListener#onConnectionClosed()}.
+   */
+  @Override
+  public void close() {
+    for (Worker worker : workers) {
+      if (worker != null) {
+        worker.shutdown();
+      }
+    }
+  }
+
+  // One selector and the thread that drives it.
+  static final class Worker implements Runnable {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<NioTerminalServer> pendingConnects = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private Worker(String name) throws IOException {
+      selector = Selector.open();
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    boolean inEventLoop() {
+      return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    Selector getSelector() {
+      return selector;
+    }
+
+    // only called from the worker thread
+    void addPendingConnect(NioTerminalServer server) {
+      pendingConnects.add(server);
+    }
+
+    void removePendingConnect(NioTerminalServer server) {
+      pendingConnects.remove(server);
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          selector.select(pendingConnects.isEmpty() ? 0 : CONNECT_CHECK_MILLIS);
+          runTasks();
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            ((NioTerminalServer) key.attachment()).handle(key);
+          }
+
+          checkConnectTimeouts();
+        } catch (IOException | RuntimeException e) {
+          LOG.error("Unexpected error in {}", thread.getName(), e);
+        }
+      }
+
+      closeSessions();
+      try {
+        selector.close();
+      } catch (IOException e) {
+        LOG.debug("Problem closing selector", e);
+      }
+    }
+
+    // the sessions still open, connecting ones included, are closed as if by the server, so
+    // their sockets don't leak and their listeners know the connection is gone
+    private void closeSessions() {
+      runTasks();
+      for (SelectionKey key : new ArrayList<>(selector.keys())) {
+        if (key.isValid()) {
+          ((NioTerminalServer) key.attachment()).eventLoopClosed();
+        }
+      }
+      pendingConnects.clear();
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+
+    private void checkConnectTimeouts() {
+      if (pendingConnects.isEmpty()) {
+        return;
+      }
+      long now = System.nanoTime();
+      for (NioTerminalServer server : new ArrayList<>(pendingConnects)) {
+        server.checkConnectTimeout(now);
+      }
+    }
+
+    private void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+
+  }
+
+}
@@ -0,0 +1,521 @@
+package com.bytezone.dm3270.streams;
+
+import com.bytezone.dm3270.ConnectionListener;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking alternative to {@link TerminalServer}.
+ * <p>
+ * The session does not own any thread: the socket is registered with one of the selectors of
+ * a shared {@link NioEventLoop}, which delivers inbound data to the {@link BufferListener} as
+ * it arrives. When an {@link SSLContext} is provided the connection is secured with an {@link
+ * SSLEngine} instead of an SSL socket.
+ * <p>
+ * Writes are queued and sent with gather writes. Whatever is written while the event loop
+ * processes what it read, like telnet negotiation replies and TN3270E responses, is sent once
+ * the batch is processed.
+ */
+public class NioTerminalServer implements TerminalTransport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NioTerminalServer.class);
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+  private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
+
+  private final String serverURL;
+  private final int serverPort;
+  private final SSLContext sslContext;
+  private final NioEventLoop.Worker worker;
+  private final BufferListener telnetListener;
+  private ConnectionListener connectionListener;
+  private int connectionTimeoutMillis;
+  private boolean tcpNoDelay = true;
+
+  private SocketChannel channel;
+  private SelectionKey key;
+  private long connectDeadline;
+  private volatile boolean running;
+
+  private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+  private boolean deferFlush;             // set by the event loop while calling the listener
+  private boolean writeInterest;
+  private boolean readSuspended;          // while the inbound queue of the session is full
+
+  // only used with SSL
+  private SSLEngine sslEngine;
+  private ByteBuffer netOut;
+  private ByteBuffer appIn;
+  private boolean handshakeDone;
+
+  public NioTerminalServer(String serverURL, int serverPort, SSLContext sslContext,
+      NioEventLoop eventLoop, BufferListener listener) {
+    this.serverURL = serverURL;
+    this.serverPort = serverPort;
+    this.sslContext = sslContext;
+    this.worker = eventLoop.nextWorker();
+    this.telnetListener = listener;
+  }
+
+  public void setConnectionTimeoutMillis(int connectionTimeoutMillis) {
+    this.connectionTimeoutMillis = connectionTimeoutMillis;
+  }
+
+  public void setConnectionListener(ConnectionListener connectionListener) {
+    this.connectionListener = connectionListener;
+  }
+
+  // writes are already coalesced, so by default they are not delayed by Nagle's algorithm
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  // the server name is resolved by the calling thread, so the event loop never waits for DNS
+  public void connect() {
+    InetSocketAddress address = new InetSocketAddress(serverURL, serverPort);
+    running = true;
+    worker.execute(() -> startConnect(address));
+  }
+
+  private void startConnect(InetSocketAddress address) {
+    try {
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+      if (sslContext != null) {
+        sslEngine = sslContext.createSSLEngine(serverURL, serverPort);
+        sslEngine.setUseClientMode(true);
+        readBuffer = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+        netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+        appIn = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+      }
+
+      if (channel.connect(address)) {
+        key = channel.register(worker.getSelector(), 0, this);
+        connected();
+      } else {
+        key = channel.register(worker.getSelector(), SelectionKey.OP_CONNECT, this);
+        if (connectionTimeoutMillis > 0) {
+          connectDeadline =
+              System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMillis);
+          worker.addPendingConnect(this);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  // called by the worker for every selected key of this session
+  void handle(SelectionKey selectedKey) {
+    try {
+      if (!selectedKey.isValid()) {
+        return;
+      }
+      if (selectedKey.isConnectable()) {
+        worker.removePendingConnect(this);
+        if (!channel.finishConnect()) {
+          return;
+        }
+        connected();
+        return;
+      }
+      if (selectedKey.isReadable()) {
+        read();
+      }
+      if (selectedKey.isValid() && selectedKey.isWritable()) {
+        flush();
+      }
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  void checkConnectTimeout(long now) {
+    if (connectDeadline != 0 && now - connectDeadline > 0) {
+      worker.removePendingConnect(this);
+      fail(new SocketTimeoutException("connect timed out"));
+    }
+  }
+
+  private void connected() throws IOException {
+    connectDeadline = 0;
+    updateInterestOps();
+    telnetListener.socketConnected();
+    if (sslEngine == null) {
+      notifyConnection();
+      flush();
+    } else {
+      sslEngine.beginHandshake();
+      pumpSsl();
+    }
+  }
+
+  private void notifyConnection() {
+    // what the listener writes first is sent by the flush which follows
+    deferFlush = true;
+    try {
+      telnetListener.connected();
+    } finally {
+      deferFlush = false;
+    }
+    if (connectionListener != null) {
+      connectionListener.onConnection();
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Inbound
+  // ---------------------------------------------------------------------------------//
+
+  private void read() throws IOException {
+    int bytesRead = channel.read(readBuffer);
+    if (bytesRead < 0) {
+      closedByServer();
+      return;
+    }
+
+    if (sslEngine == null) {
+      deliver(readBuffer);
+      flush();
+    } else {
+      pumpSsl();
+    }
+  }
+
+  private void deliver(ByteBuffer buffer) {
+    buffer.flip();
+    if (buffer.hasRemaining()) {
+      // the listener parses the records in place, the buffer is only reused after it returns
+      deferFlush = true;
+      try {
+        telnetListener.listen(TelnetSocket.Source.SERVER, buffer.array(),
+            buffer.arrayOffset() + buffer.position(), buffer.remaining(), LocalDateTime.now(),
+            true);
+      } finally {
+        deferFlush = false;
+      }
+    }
+    buffer.clear();
+  }
+
+  private void closedByServer() {
+    close();
+    if (connectionListener != null) {
+      connectionListener.onConnectionClosed();
+    }
+  }
+
+  // called by the worker when the event loop is closed, which ends the session
+  void eventLoopClosed() {
+    if (running) {
+      closedByServer();
+    } else {
+      closeChannel();
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Outbound
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public void write(byte[] buffer) {
+    // the no-op may come here if socket is closed from remote end and client has not been closed
+    if (!running && buffer == TelnetState.NO_OP) {
+      return;
+    }
+
+    enqueue(ByteBuffer.wrap(buffer));
+  }
+
+  /**
+   * Copies the bytes with {@link Arrays#copyOfRange} before queueing them. The channel is only
+   * written once it is writable, which may be after the caller has reused the buffer, so unlike
+   * {@link TerminalServer} the bytes do not go straight from the buffer to the socket.
+   */
+  @Override
+  public void write(byte[] buffer, int offset, int length) {
+    enqueue(ByteBuffer.wrap(Arrays.copyOfRange(buffer, offset, offset + length)));
+  }
+
+  private void enqueue(ByteBuffer byteBuffer) {
+    pendingWrites.add(byteBuffer);
+    if (worker.inEventLoop()) {
+      if (!deferFlush) {
+        flushQuietly();             // otherwise flushed once the listener returns
+      }
+    } else if (flushScheduled.compareAndSet(false, true)) {
+      worker.execute(() -> {
+        flushScheduled.set(false);
+        flushQuietly();
+      });
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (IOException | RuntimeException e) {
+      fail(e);
+    }
+  }
+
+  private void flush() throws IOException {
+    if (key == null || !key.isValid() || !channel.isConnected()) {
+      return;                     // pending writes will be sent once connected
+    }
+
+    if (sslEngine != null) {
+      pumpSsl();
+      return;
+    }
+
+    while (!pendingWrites.isEmpty()) {
+      ByteBuffer[] buffers = pendingWrites.toArray(NO_BUFFERS);
+      channel.write(buffers);
+      if (!removeWritten(buffers)) {
+        setWriteInterest(true);
+        return;
+      }
+    }
+    setWriteInterest(false);
+  }
+
+  // only the event loop removes buffers, so the ones written are at the head of the queue
+  private boolean removeWritten(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (buffer.hasRemaining()) {
+        return false;
+      }
+      pendingWrites.poll();
+    }
+    return true;
+  }
+
+  private void setWriteInterest(boolean writeInterest) {
+    this.writeInterest = writeInterest;
+    updateInterestOps();
+  }
+
+  private void updateInterestOps() {
+    int ops = (readSuspended ? 0 : SelectionKey.OP_READ)
+        | (writeInterest ? SelectionKey.OP_WRITE : 0);
+    if (key.interestOps() != ops) {
+      key.interestOps(ops);
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Flow control
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public boolean hasSharedReader() {
+    return true;
+  }
+
+  @Override
+  public void suspendReading() {
+    setReadSuspended(true);
+  }
+
+  @Override
+  public void resumeReading() {
+    setReadSuspended(false);
+  }
+
+  private void setReadSuspended(boolean readSuspended) {
+    if (!worker.inEventLoop()) {
+      worker.execute(() -> setReadSuspended(readSuspended));
+      return;
+    }
+    this.readSuspended = readSuspended;
+    // until connected the key waits for the connection, which sets the operations
+    if (key != null && key.isValid() && channel.isConnected()) {
+      updateInterestOps();
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // SSL
+  // ---------------------------------------------------------------------------------//
+
+  // Drives the engine until it needs more data from the network or the socket is full.
+  private void pumpSsl() throws IOException {
+    while (running) {
+      if (!flushNetOut()) {
+        return;
+      }
+
+      HandshakeStatus status = sslEngine.getHandshakeStatus();
+      if (status == HandshakeStatus.NEED_TASK) {
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+          task.run();
+        }
+      } else if (status == HandshakeStatus.NEED_WRAP) {
+        wrap(EMPTY);
+      } else if (status != HandshakeStatus.NOT_HANDSHAKING
+          && status != HandshakeStatus.FINISHED) {
+        if (!unwrap()) {
+          return;
+        }
+      } else {
+        if (!handshakeDone) {
+          handshakeDone = true;
+          telnetListener.tlsEstablished();
+          notifyConnection();
+        }
+
+        if (!pendingWrites.isEmpty()) {
+          ByteBuffer[] pending = pendingWrites.toArray(NO_BUFFERS);
+          wrap(pending);
+          removeWritten(pending);
+        } else if (readBuffer.position() == 0 || !unwrap()) {
+          return;
+        }
+      }
+    }
+  }
+
+  private boolean unwrap() throws IOException {
+    readBuffer.flip();
+    SSLEngineResult result;
+    try {
+      result = sslEngine.unwrap(readBuffer, appIn);
+    } finally {
+      readBuffer.compact();
+    }
+
+    switch (result.getStatus()) {
+      case BUFFER_OVERFLOW:
+        appIn = enlarge(appIn, sslEngine.getSession().getApplicationBufferSize());
+        return true;
+
+      case BUFFER_UNDERFLOW:
+        if (!readBuffer.hasRemaining()) {
+          readBuffer = enlarge(readBuffer, sslEngine.getSession().getPacketBufferSize());
+        }
+        return false;
+
+      case CLOSED:
+        closedByServer();
+        return false;
+
+      default:
+        deliver(appIn);
+        return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+  }
+
+  private void wrap(ByteBuffer... sources) throws IOException {
+    SSLEngineResult result = sslEngine.wrap(sources, netOut);
+    switch (result.getStatus()) {
+      case BUFFER_OVERFLOW:
+        // only grow when there is nothing left to flush, otherwise flush first and retry
+        if (netOut.position() == 0) {
+          netOut = enlarge(netOut, sslEngine.getSession().getPacketBufferSize());
+        }
+        break;
+
+      case CLOSED:
+        throw new SSLException("SSL engine closed");
+
+      default:
+        break;
+    }
+  }
+
+  private boolean flushNetOut() throws IOException {
+    netOut.flip();
+    try {
+      channel.write(netOut);
+      boolean flushed = !netOut.hasRemaining();
+      setWriteInterest(!flushed);
+      return flushed;
+    } finally {
+      netOut.compact();
+    }
+  }
+
+  private static ByteBuffer enlarge(ByteBuffer buffer, int minimumCapacity) {
+    int capacity = Math.max(minimumCapacity, buffer.capacity() * 2);
+    ByteBuffer enlarged = ByteBuffer.allocate(capacity);
+    buffer.flip();
+    enlarged.put(buffer);
+    return enlarged;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Close
+  // ---------------------------------------------------------------------------------//
+
+  private void fail(Exception ex) {
+    boolean wasRunning = running;
+    close();
+    if (!wasRunning) {
+      return;
+    }
+    if (connectionListener != null) {
+      connectionListener.onException(ex);
+    } else {
+      LOG.error("Problem with connection to {}:{}", serverURL, serverPort, ex);
+    }
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    if (worker.inEventLoop()) {
+      closeChannel();
+    } else {
+      worker.execute(this::closeChannel);
+    }
+    if (telnetListener != null) {
+      telnetListener.close();
+    }
+  }
+
+  private void closeChannel() {
+    worker.removePendingConnect(this);
+    connectDeadline = 0;
+    pendingWrites.clear();
+    if (key != null) {
+      key.cancel();
+    }
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.debug("Problem closing channel", e);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("NioTerminalServer connected to %s : %d", serverURL, serverPort);
+  }
+
+}
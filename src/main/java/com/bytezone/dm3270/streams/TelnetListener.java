@@ -1,6 +1,7 @@
 package com.bytezone.dm3270.streams;
 
 import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.ConnectionPhase;
 import com.bytezone.dm3270.buffers.Buffer;
 import com.bytezone.dm3270.buffers.ReplyBuffer;
 import com.bytezone.dm3270.commands.Command;
@@ -11,6 +12,7 @@ import com.bytezone.dm3270.extended.ResponseCommand;
 import com.bytezone.dm3270.extended.SscpLuDataCommand;
 import com.bytezone.dm3270.extended.TN3270ExtendedCommand;
 import com.bytezone.dm3270.extended.UnbindCommand;
+import com.bytezone.dm3270.metrics.SessionMetrics;
 import com.bytezone.dm3270.session.SessionRecord;
 import com.bytezone.dm3270.session.SessionRecord.SessionRecordType;
 import com.bytezone.dm3270.telnet.TN3270ExtendedSubcommand;
@@ -20,6 +22,7 @@ import com.bytezone.dm3270.telnet.TelnetProcessor;
 import com.bytezone.dm3270.telnet.TelnetSubcommand;
 import com.bytezone.dm3270.telnet.TerminalTypeSubcommand;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,34 +37,71 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor {
   private final TelnetState telnetState;
   private final Screen screen;
 
-  private final TelnetProcessor telnetProcessor = new TelnetProcessor(this);
+  private final TelnetProcessor telnetProcessor;
+  private final InboundQueue inboundQueue;           // null when processing in the reader
+  private final SessionMetrics metrics;
 
   // Use this when not recording the session and running in TERMINAL mode.
   public TelnetListener(Screen screen, TelnetState telnetState) {
     this.screen = screen;
     this.charset = screen.getCharset();
     this.telnetState = telnetState;
+    this.telnetProcessor = new TelnetProcessor(this, telnetState.getMaxRecordSize());
+    this.inboundQueue = telnetState.getInboundQueue();
+    this.metrics = telnetState.getMetrics();
 
     this.source = TelnetSocket.Source.SERVER;                  // listening to a server
   }
 
-  // This method is always called with a copy of the original buffer. It can be
-  // called from a background thread, so any GUI calls must be placed on the EDT.
+  @Override
+  public void listen(TelnetSocket.Source source, byte[] buffer, LocalDateTime dateTime,
+      boolean genuine) {
+    listen(source, buffer, 0, buffer.length, dateTime, genuine);
+  }
+
+  // This method is called with the socket's read buffer, which is reused as soon as it
+  // returns, so the records are parsed in place and nothing may keep a reference to it. It can
+  // be called from a background thread, so any GUI calls must be placed on the EDT.
   // Converts buffer arrays to Messages.
 
   @Override
-  public synchronized void listen(TelnetSocket.Source source, byte[] buffer, LocalDateTime dateTime,
-      boolean genuine) {
+  public synchronized void listen(TelnetSocket.Source source, byte[] buffer, int offset,
+      int length, LocalDateTime dateTime, boolean genuine) {
     assert source == this.source : "Incorrect source: " + source + ", expecting: "
         + this.source;
 
-    telnetProcessor.listen(buffer);     // will call one of the processXXX routines
+    if (source == TelnetSocket.Source.SERVER) {
+      telnetState.getResponseTimes().bytesReceived();
+      metrics.bytesRead(length);
+    }
+    telnetProcessor.listen(buffer, offset, length);   // will call one of the processXXX routines
 
     telnetState.setLastAccess();
   }
 
+  @Override
+  public void socketConnected() {
+    telnetState.phaseReached(ConnectionPhase.TCP_CONNECTED);
+  }
+
+  @Override
+  public void tlsEstablished() {
+    telnetState.phaseReached(ConnectionPhase.TLS_ESTABLISHED);
+  }
+
+  @Override
+  public void connected() {
+    if (telnetState.doOptimisticNegotiation()) {
+      telnetState.write(TelnetCommand.getOptimisticOffers(telnetState));
+    }
+  }
+
   @Override
   public void close() {
+    telnetState.close();                        // no more keep-alives for a closed connection
+    if (inboundQueue != null) {
+      inboundQueue.clear();
+    }
   }
 
   @Override
@@ -71,23 +111,48 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor {
 
   @Override
   public void processRecord(byte[] data, int dataPtr) {
+    processRecord(data, 0, dataPtr);
+  }
+
+  // When the session has an inbound queue the reading thread only copies the record, since the
+  // read buffer is reused, and everything else is done by the queue's processing stage. Telnet
+  // commands are queued as well, because they change how the following records are parsed.
+
+  @Override
+  public void processRecord(byte[] data, int recordOffset, int recordLength) {
+    telnetState.getResponseTimes().recordReceived();
+    telnetState.phaseReached(ConnectionPhase.FIRST_RECORD_RECEIVED);
+    metrics.recordReceived(recordLength);
+    if (inboundQueue == null) {
+      handleRecord(data, recordOffset, recordLength);
+    } else {
+      byte[] record = Arrays.copyOfRange(data, recordOffset, recordOffset + recordLength);
+      inboundQueue.submit(() -> handleRecord(record, 0, record.length));
+    }
+  }
+
+  private void handleRecord(byte[] data, int recordOffset, int recordLength) {
     int offset;
     int length;
     CommandHeader.DataType dataType;
 
     CommandHeader currentCommandHeader;
     if (telnetState.does3270Extended()) {
-      offset = 5;
-      length = dataPtr - 7;         // exclude IAC/EOR and header
-      currentCommandHeader = new CommandHeader(data, 0, 5, charset);
+      offset = recordOffset + 5;
+      length = recordLength - 7;    // exclude IAC/EOR and header
+      currentCommandHeader = new CommandHeader(data, recordOffset, 5, charset);
       dataType = currentCommandHeader.getDataType();
     } else {
-      offset = 0;
-      length = dataPtr - 2;         // exclude IAC/EOR
+      offset = recordOffset;
+      length = recordLength - 2;    // exclude IAC/EOR
       currentCommandHeader = null;
       dataType = CommandHeader.DataType.TN3270_DATA;
     }
 
+    if (dataType != CommandHeader.DataType.TN3270_DATA) {
+      metrics.commandReceived(dataType.name());
+    }
+
     switch (dataType) {
       case TN3270_DATA:
         ReplyBuffer command;
@@ -99,6 +164,9 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor {
           } else {
             command = Command.getReply(data, offset, length, screen.getCharset());
           }
+          if (command != null) {
+            metrics.commandReceived(((Command) command).getName());
+          }
           if (currentCommandHeader != null) {
             command = new TN3270ExtendedCommand(currentCommandHeader, (Command) command,
                 telnetState, charset);
@@ -109,6 +177,7 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor {
         break;
 
       case BIND_IMAGE:
+        telnetState.phaseReached(ConnectionPhase.BIND_RECEIVED);
         BindCommand bindCommand =
             new BindCommand(currentCommandHeader, data, offset, length, screen.getCharset());
         addDataRecord(bindCommand, SessionRecord.SessionRecordType.TN3270E);
@@ -143,6 +212,16 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor {
 
   @Override
   public void processTelnetCommand(byte[] data, int dataPtr) {
+    metrics.telnetCommandReceived();
+    if (inboundQueue == null) {
+      handleTelnetCommand(data, dataPtr);
+    } else {
+      byte[] command = Arrays.copyOf(data, dataPtr);
+      inboundQueue.submit(() -> handleTelnetCommand(command, command.length));
+    }
+  }
+
+  private void handleTelnetCommand(byte[] data, int dataPtr) {
     TelnetCommand telnetCommand = new TelnetCommand(telnetState, data, dataPtr);
     addDataRecord(telnetCommand, SessionRecord.SessionRecordType.TELNET);
     telnetCommand.process(screen);       // updates TelnetState
@@ -150,6 +229,16 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor {
 
   @Override
   public void processTelnetSubcommand(byte[] data, int dataPtr) {
+    metrics.telnetCommandReceived();
+    if (inboundQueue == null) {
+      handleTelnetSubcommand(data, dataPtr);
+    } else {
+      byte[] subcommand = Arrays.copyOf(data, dataPtr);
+      inboundQueue.submit(() -> handleTelnetSubcommand(subcommand, subcommand.length));
+    }
+  }
+
+  private void handleTelnetSubcommand(byte[] data, int dataPtr) {
     TelnetSubcommand subcommand = null;
 
     if (data[2] == TelnetSubcommand.TERMINAL_TYPE) {
@@ -165,17 +254,14 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor {
 
   private void addDataRecord(ReplyBuffer message,
       SessionRecord.SessionRecordType sessionRecordType) {
-    // no gui involved
-    if (sessionRecordType == SessionRecord.SessionRecordType.TELNET) {
-      processMessage(message);
-    } else {
-      //TODO should we run this in a separate thread?
-      processMessage(message);
-    }
+    // no gui involved, and records are only processed in a separate thread when the session
+    // has an inbound queue
+    processMessage(message);
   }
 
   private void processMessage(ReplyBuffer message) {
     message.process(screen);
+    screen.publishSnapshot();
     Optional<Buffer> reply = message.getReply();
     reply.ifPresent(buffer -> telnetState.write(buffer.getTelnetData()));
   }
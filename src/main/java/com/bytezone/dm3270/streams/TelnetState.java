@@ -1,8 +1,21 @@
 package com.bytezone.dm3270.streams;
 
+import com.bytezone.dm3270.ConnectionListener;
+import com.bytezone.dm3270.ConnectionPhase;
 import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.metrics.ConnectTimes;
+import com.bytezone.dm3270.metrics.ResponseTimes;
+import com.bytezone.dm3270.metrics.SessionMetrics;
 import com.bytezone.dm3270.telnet.TN3270ExtendedSubcommand;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +24,8 @@ public class TelnetState implements Runnable {
 
   public static final byte[] NO_OP = {(byte) 0xFF, (byte) 0xF1};
 
+  public static final long DEFAULT_KEEP_ALIVE_INTERVAL_MILLIS = 120_000;
+
   private static final Logger LOG = LoggerFactory.getLogger(TelnetState.class);
 
   private static final String[] TERMINAL_TYPES =
@@ -23,6 +38,7 @@ public class TelnetState implements Runnable {
   private boolean doEOR;
   private boolean doTerminalType;
   private String doDeviceType;
+  private boolean optimisticNegotiation;
 
   // current status
   private boolean does3270Extended;
@@ -31,14 +47,27 @@ public class TelnetState implements Runnable {
   private boolean doesTerminalType;
   private String deviceType = "";
   private List<TN3270ExtendedSubcommand.Function> functions;
+  // options offered by the client which the server has not answered yet, and whether the
+  // functions were requested with the device type
+  private final Set<Integer> pendingOffers = ConcurrentHashMap.newKeySet();
+  private volatile boolean functionsRequested;
 
   private String terminal = "";
-  private TerminalServer terminalServer;
+  private TerminalTransport terminalServer;
 
   // IO
   private AtomicLong lastAccess;
   private volatile boolean running = false;
-  private Thread thread;
+  private ScheduledExecutorService keepAliveExecutor = KeepAliveScheduler.getDefault();
+  private long keepAliveIntervalMillis = DEFAULT_KEEP_ALIVE_INTERVAL_MILLIS;
+  private ScheduledFuture<?> keepAliveTask;
+  private int maxRecordSize = TelnetProcessor.DEFAULT_MAX_RECORD_SIZE;
+  private InboundQueue inboundQueue;
+  private final ResponseTimes responseTimes = new ResponseTimes();
+  private final ConnectTimes connectTimes = new ConnectTimes();
+  private final Set<ConnectionPhase> reachedPhases = EnumSet.noneOf(ConnectionPhase.class);
+  private ConnectionListener connectionListener;
+  private SessionMetrics metrics = SessionMetrics.NOOP;
 
   private ScreenDimensions secondary = new ScreenDimensions(24, 80);
 
@@ -52,10 +81,116 @@ public class TelnetState implements Runnable {
     lastAccess = new AtomicLong(System.currentTimeMillis());
   }
 
-  public void setTerminalServer(TerminalServer terminalServer) {
+  /**
+   * Sets the executor used to send keep-alive NO_OPs.
+   * <p>
+   * By default all sessions share the single thread of {@link KeepAliveScheduler#getDefault()}.
+   * Must be called before {@link #setTerminalServer}.
+   */
+  public void setKeepAliveExecutor(ScheduledExecutorService keepAliveExecutor) {
+    this.keepAliveExecutor = keepAliveExecutor;
+  }
+
+  /**
+   * Sets the time the connection may stay idle before a NO_OP is sent to the server. A value of
+   * zero or less disables keep-alive for this session.
+   */
+  public void setKeepAliveIntervalMillis(long keepAliveIntervalMillis) {
+    this.keepAliveIntervalMillis = keepAliveIntervalMillis;
+  }
+
+  /**
+   * Sets the size of the biggest record accepted from the server. Bigger records make the
+   * connection fail instead of growing the session buffers without limit. Must be called before
+   * the {@link TelnetListener} of the session is created.
+   */
+  public void setMaxRecordSize(int maxRecordSize) {
+    if (maxRecordSize <= 0) {
+      throw new IllegalArgumentException("Invalid maximum record size: " + maxRecordSize);
+    }
+    this.maxRecordSize = maxRecordSize;
+  }
+
+  public int getMaxRecordSize() {
+    return maxRecordSize;
+  }
+
+  /**
+   * Sets the queue where received records wait to be processed, or null (the default) to
+   * process them in the thread reading the socket. Must be called before the
+   * {@link TelnetListener} of the session is created.
+   */
+  public void setInboundQueue(InboundQueue inboundQueue) {
+    this.inboundQueue = inboundQueue;
+  }
+
+  public InboundQueue getInboundQueue() {
+    return inboundQueue;
+  }
+
+  /**
+   * Response times of this session, which are also added to {@link
+   * ResponseTimes#getAggregate()}.
+   */
+  public ResponseTimes getResponseTimes() {
+    return responseTimes;
+  }
+
+  /**
+   * Time taken by each phase of connecting this session, which is also added to {@link
+   * ConnectTimes#getAggregate()}.
+   */
+  public ConnectTimes getConnectTimes() {
+    return connectTimes;
+  }
+
+  /**
+   * Sets where the session reports what each stage of the pipeline does, by default
+   * {@link SessionMetrics#NOOP}. Must be called before the {@link TelnetListener} of the session
+   * is created.
+   */
+  public void setMetrics(SessionMetrics metrics) {
+    this.metrics = metrics == null ? SessionMetrics.NOOP : metrics;
+  }
+
+  public SessionMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets where the phases of connecting this session are notified. Must be called before
+   * connecting.
+   */
+  public void setConnectionListener(ConnectionListener connectionListener) {
+    this.connectionListener = connectionListener;
+  }
+
+  // records and notifies each phase once per connection, connecting again starts over
+  public void phaseReached(ConnectionPhase phase) {
+    long now = System.nanoTime();
+    synchronized (reachedPhases) {
+      if (phase == ConnectionPhase.CONNECTING) {
+        reachedPhases.clear();
+      }
+      if (!reachedPhases.add(phase)) {
+        return;
+      }
+    }
+    connectTimes.phaseReached(phase, now);
+    if (connectionListener != null) {
+      connectionListener.onConnectionPhase(phase, now);
+    }
+  }
+
+  public void setTerminalServer(TerminalTransport terminalServer) {
     this.terminalServer = terminalServer;
-    thread = new Thread(this);
-    thread.start();
+    if (inboundQueue != null) {
+      inboundQueue.setTransport(terminalServer);
+    }
+    running = true;
+    if (keepAliveIntervalMillis > 0) {
+      scheduleKeepAlive(keepAliveIntervalMillis);
+    }
   }
 
   public void setLastAccess() {
@@ -65,6 +200,17 @@ public class TelnetState implements Runnable {
   public void write(byte[] buffer) {
     if (terminalServer != null) {
       terminalServer.write(buffer);
+      metrics.bytesWritten(buffer.length);
+    }
+
+    lastAccess.set(System.currentTimeMillis());
+  }
+
+  // the caller may reuse the bytes as soon as this returns
+  public void write(byte[] buffer, int offset, int length) {
+    if (terminalServer != null) {
+      terminalServer.write(buffer, offset, length);
+      metrics.bytesWritten(length);
     }
 
     lastAccess.set(System.currentTimeMillis());
@@ -74,43 +220,49 @@ public class TelnetState implements Runnable {
     return commandHeaderCount++;
   }
 
-  // This thread exists simply to keep the connection alive. It sleeps for a
-  // certain period, and when it wakes it issues a NOOP if nothing else has
-  // communicated with the server.
+  // This task exists simply to keep the connection alive. It is scheduled to run
+  // when the connection would have been idle for the keep-alive interval, and when it
+  // runs it issues a NOOP if nothing else has communicated with the server since.
 
   @Override
   public void run() {
-    long lastTimeIChecked;
-    running = true;
-    long limit = 120;      // seconds to wait
-
-    while (running) {
-      try {
-        lastTimeIChecked = lastAccess.get();
-        long delay = (System.currentTimeMillis() - lastTimeIChecked) / 1000;
-        long sleep = limit - delay;
-
-        if (sleep > 1) {
-          Thread.sleep(sleep * 1000);
-        }
-
-        if (lastTimeIChecked == lastAccess.get()) {
-          write(NO_OP);
-        }
-      } catch (InterruptedException e) {
-        if (running) {
-          LOG.debug("TelnetState was interrupted.");
-        }
-        close();
-        return;
-      }
+    if (!running) {
+      return;
+    }
+
+    long idle = System.currentTimeMillis() - lastAccess.get();
+    if (idle >= keepAliveIntervalMillis) {
+      sendKeepAlive();
+      idle = 0;
+    }
+    scheduleKeepAlive(keepAliveIntervalMillis - idle);
+  }
+
+  // handed to the transport, which must not block the thread shared by every session
+  private void sendKeepAlive() {
+    if (terminalServer != null) {
+      terminalServer.sendKeepAlive();
+      metrics.bytesWritten(NO_OP.length);
+    }
+    lastAccess.set(System.currentTimeMillis());
+  }
+
+  private synchronized void scheduleKeepAlive(long delayMillis) {
+    if (!running) {
+      return;
+    }
+    try {
+      keepAliveTask = keepAliveExecutor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Keep-alive executor rejected task", e);
     }
   }
 
-  public void close() {
-    if (thread != null) {
-      running = false;
-      thread.interrupt();
+  public synchronized void close() {
+    running = false;
+    if (keepAliveTask != null) {
+      keepAliveTask.cancel(false);
+      keepAliveTask = null;
     }
   }
 
@@ -125,6 +277,9 @@ public class TelnetState implements Runnable {
   public void setDoes3270Extended(boolean state) {
     LOG.debug("Does Extended: {}", state);
     does3270Extended = state;
+    if (state) {
+      phaseReached(ConnectionPhase.TN3270E_ACCEPTED);
+    }
   }
 
   public void setDoesEOR(boolean state) {
@@ -150,6 +305,7 @@ public class TelnetState implements Runnable {
   public void setDeviceType(String deviceType) {
     LOG.debug("Device Type: {}", deviceType);
     this.deviceType = deviceType;
+    phaseReached(ConnectionPhase.DEVICE_TYPE_ACCEPTED);
 
     int modelNo = 0;
     for (int i = 2; i <= 5; i++) {
@@ -181,6 +337,32 @@ public class TelnetState implements Runnable {
   public void setFunctions(List<TN3270ExtendedSubcommand.Function> functions) {
     LOG.debug("Functions: {}", functions);
     this.functions = functions;
+    phaseReached(ConnectionPhase.FUNCTIONS_ACCEPTED);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Optimistic negotiation (what was sent before the server asked for it)
+  // ---------------------------------------------------------------------------------//
+
+  public void addPendingOffer(byte command, byte option) {
+    pendingOffers.add(getOfferKey(command, option));
+  }
+
+  // true when the client had offered it, so the server's request is the answer to the offer
+  public boolean removePendingOffer(byte command, byte option) {
+    return pendingOffers.remove(getOfferKey(command, option));
+  }
+
+  private static int getOfferKey(byte command, byte option) {
+    return (command & 0xFF) << 8 | option & 0xFF;
+  }
+
+  public void setFunctionsRequested(boolean functionsRequested) {
+    this.functionsRequested = functionsRequested;
+  }
+
+  public boolean isFunctionsRequested() {
+    return functionsRequested;
   }
 
   // ---------------------------------------------------------------------------------//
@@ -227,6 +409,10 @@ public class TelnetState implements Runnable {
     return doDeviceType;
   }
 
+  public boolean doOptimisticNegotiation() {
+    return optimisticNegotiation;
+  }
+
   // ---------------------------------------------------------------------------------//
   // Set preferences
   // ---------------------------------------------------------------------------------//
@@ -243,6 +429,17 @@ public class TelnetState implements Runnable {
     doEOR = state;
   }
 
+  /**
+   * Sets whether the client offers the options it wants as soon as it connects, instead of
+   * waiting for the server to ask for each of them, and requests the TN3270E functions together
+   * with the device type. It saves round trips while connecting, but it is off by default since
+   * it relies on the server answering the offers it did not ask for. Servers which refuse an
+   * offer are negotiated with as usual.
+   */
+  public void setDoOptimisticNegotiation(boolean state) {
+    optimisticNegotiation = state;
+  }
+
   public void setDoTerminalType(boolean state) {
     doTerminalType = state;
   }
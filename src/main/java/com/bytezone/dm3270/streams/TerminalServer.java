@@ -1,22 +1,37 @@
 package com.bytezone.dm3270.streams;
 
 import com.bytezone.dm3270.ConnectionListener;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.time.LocalDateTime;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocket;
 
-public class TerminalServer implements Runnable {
+/**
+ * Connection to a terminal server served by its own reader thread.
+ * <p>
+ * Whatever is written while the reader thread processes what it read, like telnet negotiation
+ * replies and TN3270E responses, is buffered and sent with a single flush once the batch is
+ * processed. Writes from any other thread are flushed right away.
+ */
+public class TerminalServer implements Runnable, TerminalTransport {
+
+  private static final int OUTPUT_BUFFER_SIZE = 4096;
 
   private final String serverURL;
   private final int serverPort;
   private final SocketFactory socketFactory;
   private int connectionTimeoutMillis;
+  private boolean tcpNoDelay = true;
   private Socket serverSocket;
   private OutputStream serverOut;
+  private volatile Thread readerThread;
+  private final ReentrantLock writeLock = new ReentrantLock();
 
   private final byte[] buffer = new byte[4096];
   private volatile boolean running;
@@ -40,22 +55,37 @@ public class TerminalServer implements Runnable {
     this.connectionListener = connectionListener;
   }
 
+  // writes are already coalesced, so by default they are not delayed by Nagle's algorithm
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
   @Override
   public void run() {
     try {
+      InputStream serverIn;
       try {
         serverSocket = socketFactory.createSocket();
+        serverSocket.setTcpNoDelay(tcpNoDelay);
         serverSocket.connect(new InetSocketAddress(serverURL, serverPort), connectionTimeoutMillis);
-        connectionListener.onConnection();
+        telnetListener.socketConnected();
+        if (serverSocket instanceof SSLSocket) {
+          ((SSLSocket) serverSocket).startHandshake();     // instead of on the first read
+          telnetListener.tlsEstablished();
+        }
+        serverIn = serverSocket.getInputStream();
+        serverOut = new BufferedOutputStream(serverSocket.getOutputStream(), OUTPUT_BUFFER_SIZE);
       } catch (IOException ex) {
+        close();
         handleException(ex);
         return;
       }
 
-      InputStream serverIn = serverSocket.getInputStream();
-      serverOut = serverSocket.getOutputStream();
-
       running = true;
+      telnetListener.connected();                  // written before batching starts
+      connectionListener.onConnection();
+      readerThread = Thread.currentThread();
+
       while (running) {
         int bytesRead = serverIn.read(buffer);
         if (bytesRead < 0) {
@@ -66,19 +96,23 @@ public class TerminalServer implements Runnable {
           break;
         }
 
-        byte[] message = new byte[bytesRead];
-        System.arraycopy(buffer, 0, message, 0, bytesRead);
-        telnetListener.listen(TelnetSocket.Source.SERVER, message, LocalDateTime.now(), true);
+        telnetListener.listen(TelnetSocket.Source.SERVER, buffer, 0, bytesRead,
+            LocalDateTime.now(), true);
+        flush();                        // whatever was written while processing the batch
       }
     } catch (IOException e) {
       if (running) {
         close();
         handleException(e);
       }
+    } catch (RuntimeException e) {
+      // the received data could not be processed, there is no way to resynchronize the stream
+      close();
+      handleException(e);
     }
   }
 
-  private void handleException(IOException ex) {
+  private void handleException(Exception ex) {
     if (connectionListener != null) {
       connectionListener.onException(ex);
     } else {
@@ -86,20 +120,67 @@ public class TerminalServer implements Runnable {
     }
   }
 
-  public synchronized void write(byte[] buffer) {
+  @Override
+  public void write(byte[] buffer) {
+    write(buffer, 0, buffer.length);
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) {
     // the no-op may come here if socket is closed from remote end and client has not been closed
     if (!running && buffer == TelnetState.NO_OP) {
       return;
     }
 
+    writeLock.lock();
+    try {
+      writeLocked(buffer, offset, length);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  // A thread holding the lock is writing, or blocked because the server stopped reading, and
+  // the keep-alive thread must not wait for it. The NO_OP is two bytes, so when the lock is free
+  // the socket buffer can only be full if the server has stopped reading for a long time.
+  @Override
+  public void sendKeepAlive() {
+    if (!running || !writeLock.tryLock()) {
+      return;
+    }
+    try {
+      writeLocked(TelnetState.NO_OP, 0, TelnetState.NO_OP.length);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void writeLocked(byte[] buffer, int offset, int length) {
+    try {
+      serverOut.write(buffer, offset, length);
+      if (Thread.currentThread() != readerThread) {
+        serverOut.flush();
+      }
+    } catch (IOException e) {
+      handleException(e);
+    }
+  }
+
+  private void flush() {
+    writeLock.lock();
     try {
-      serverOut.write(buffer);
+      if (!running) {
+        return;                         // closed while processing the batch
+      }
       serverOut.flush();
     } catch (IOException e) {
       handleException(e);
+    } finally {
+      writeLock.unlock();
     }
   }
 
+  @Override
   public void close() {
     try {
       running = false;
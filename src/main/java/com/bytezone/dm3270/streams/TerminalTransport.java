@@ -0,0 +1,49 @@
+package com.bytezone.dm3270.streams;
+
+/**
+ * Outbound side of a connection to a terminal server.
+ * <p>
+ * Implemented by {@link TerminalServer} (one blocking reader thread per session) and by
+ * {@link NioTerminalServer} (sessions multiplexed on a shared {@link NioEventLoop}).
+ */
+public interface TerminalTransport {
+
+  void write(byte[] buffer);
+
+  /**
+   * Writes part of a buffer which the caller reuses as soon as this method returns, so
+   * implementations which write later must copy the bytes.
+   */
+  void write(byte[] buffer, int offset, int length);
+
+  /**
+   * Sends a NO_OP to keep the connection alive. It is called by the keep-alive thread shared by
+   * all the sessions, so it must not block. It may skip the NO_OP when the connection is busy
+   * writing something else.
+   */
+  default void sendKeepAlive() {
+    write(TelnetState.NO_OP);
+  }
+
+  /**
+   * Whether inbound data is delivered by a thread which serves other sessions too, and so must
+   * never wait for this one. Such transports stop reading with {@link #suspendReading()} instead.
+   */
+  default boolean hasSharedReader() {
+    return false;
+  }
+
+  /**
+   * Stops reading from the socket until {@link #resumeReading()} is called, so TCP flow control
+   * slows down the server. It may be called from any thread, and data already read may still be
+   * delivered.
+   */
+  default void suspendReading() {
+  }
+
+  default void resumeReading() {
+  }
+
+  void close();
+
+}
@@ -22,7 +22,7 @@ public class Outbound3270DS extends StructuredField {
     assert (partitionID & (byte) 0x80) == 0;    // must be 0x00 - 0x7F
 
     // can only be W/EW/EWA/EAU (i.e. one of the write commands)
-    command = Command.getCommand(buffer, offset + 2, length - 2, charset);
+    command = Command.getCommand(data, 2, length - 2, charset);
   }
 
   @Override
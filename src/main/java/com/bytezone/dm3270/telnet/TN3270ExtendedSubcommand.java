@@ -1,5 +1,6 @@
 package com.bytezone.dm3270.telnet;
 
+import com.bytezone.dm3270.buffers.MultiBuffer;
 import com.bytezone.dm3270.display.Screen;
 import com.bytezone.dm3270.streams.TelnetState;
 import java.nio.charset.StandardCharsets;
@@ -127,15 +128,27 @@ public class TN3270ExtendedSubcommand extends TelnetSubcommand {
       reply[reply.length - 2] = TelnetCommand.IAC;
       reply[reply.length - 1] = TelnetCommand.SE;
 
-      setReply(new TN3270ExtendedSubcommand(reply, 0, reply.length, telnetState));
+      TN3270ExtendedSubcommand deviceTypeRequest =
+          new TN3270ExtendedSubcommand(reply, 0, reply.length, telnetState);
+      if (telnetState.doOptimisticNegotiation()) {
+        // request the functions without waiting for the server to assign the device type
+        MultiBuffer replies = new MultiBuffer(screen.getCharset());
+        replies.addBuffer(deviceTypeRequest);
+        replies.addBuffer(getFunctionsRequest());
+        telnetState.setFunctionsRequested(true);
+        setReply(replies);
+      } else {
+        setReply(deviceTypeRequest);
+      }
     }
 
     // after the server assigns our device type, request these three functions
     if (type == SubcommandType.DEVICE_TYPE && subType == SubType.IS) {
-      byte[] reply =
-          {TelnetCommand.IAC, TelnetCommand.SB, TN3270E, EXT_FUNCTIONS, EXT_REQUEST,
-              0x00, 0x02, 0x04, TelnetCommand.IAC, TelnetCommand.SE};
-      setReply(new TN3270ExtendedSubcommand(reply, 0, reply.length, telnetState));
+      if (telnetState.isFunctionsRequested()) {
+        telnetState.setFunctionsRequested(false);
+      } else {
+        setReply(getFunctionsRequest());
+      }
     }
 
     switch (subType) {
@@ -168,6 +181,13 @@ public class TN3270ExtendedSubcommand extends TelnetSubcommand {
     }
   }
 
+  private TN3270ExtendedSubcommand getFunctionsRequest() {
+    byte[] request =
+        {TelnetCommand.IAC, TelnetCommand.SB, TN3270E, EXT_FUNCTIONS, EXT_REQUEST,
+            0x00, 0x02, 0x04, TelnetCommand.IAC, TelnetCommand.SE};
+    return new TN3270ExtendedSubcommand(request, 0, request.length, telnetState);
+  }
+
   @Override
   public String toString() {
     switch (type) {
@@ -4,6 +4,7 @@ import com.bytezone.dm3270.buffers.AbstractTelnetCommand;
 import com.bytezone.dm3270.display.Screen;
 import com.bytezone.dm3270.streams.TelnetState;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
 
 public class TelnetCommand extends AbstractTelnetCommand {
 
@@ -85,6 +86,45 @@ public class TelnetCommand extends AbstractTelnetCommand {
     }
   }
 
+  /**
+   * Builds the options the client offers as soon as it connects when the negotiation is
+   * optimistic, and records them as pending in the telnet state.
+   * <p>
+   * With TN3270E only that option is offered, since it implies the others. When the server
+   * refuses it, it asks for the other options as usual.
+   */
+  public static byte[] getOptimisticOffers(TelnetState telnetState) {
+    byte[] buffer = new byte[15];
+    int ptr = 0;
+
+    if (telnetState.do3270Extended()) {
+      ptr = addOffer(telnetState, WILL, TelnetSubcommand.TN3270E, buffer, ptr);
+    } else {
+      if (telnetState.doTerminalType()) {
+        ptr = addOffer(telnetState, WILL, TelnetSubcommand.TERMINAL_TYPE, buffer, ptr);
+      }
+      if (telnetState.doEOR()) {
+        ptr = addOffer(telnetState, WILL, TelnetSubcommand.EOR, buffer, ptr);
+        ptr = addOffer(telnetState, DO, TelnetSubcommand.EOR, buffer, ptr);
+      }
+      if (telnetState.doBinary()) {
+        ptr = addOffer(telnetState, WILL, TelnetSubcommand.BINARY, buffer, ptr);
+        ptr = addOffer(telnetState, DO, TelnetSubcommand.BINARY, buffer, ptr);
+      }
+    }
+
+    return Arrays.copyOf(buffer, ptr);
+  }
+
+  private static int addOffer(TelnetState telnetState, byte command, byte option,
+      byte[] buffer, int ptr) {
+    telnetState.addPendingOffer(command, option);
+    buffer[ptr++] = IAC;
+    buffer[ptr++] = command;
+    buffer[ptr++] = option;
+    return ptr;
+  }
+
   @Override
   public void process(Screen screen) {
     // mainframe asks us DO xxx
@@ -114,15 +154,18 @@ public class TelnetCommand extends AbstractTelnetCommand {
         reply[1] =  WONT;
       }
 
-      setReply(new TelnetCommand(telnetState, reply));
+      // the server agreeing to an option we offered must not be answered again
+      if (!telnetState.removePendingOffer(WILL, data[2])) {
+        setReply(new TelnetCommand(telnetState, reply));
+      }
       // the actual reply (REPLAY)
     } else if (commandName == CommandName.WILL) {
       byte[] reply = new byte[3];
       reply[0] = IAC;
 
+      // TN3270E is only accepted when the client already does it, not when it answers DONT
       if (commandType == CommandType.TN3270_EXTENDED) {
         reply[1] = telnetState.does3270Extended() ? DO : DONT;
-        telnetState.setDoes3270Extended(true);
       }
 
       if (commandType == CommandType.TERMINAL_TYPE) {
@@ -141,8 +184,12 @@ public class TelnetCommand extends AbstractTelnetCommand {
       }
 
       reply[2] = data[2];
-      setReply(new TelnetCommand(telnetState, reply));
+      if (!telnetState.removePendingOffer(DO, data[2])) {
+        setReply(new TelnetCommand(telnetState, reply));
+      }
     } else if (commandName == CommandName.DONT || commandName == CommandName.WONT) {
+      // a refused offer is not answered either
+      telnetState.removePendingOffer(commandName == CommandName.DONT ? WILL : DO, data[2]);
       if (commandType == CommandType.BINARY) {
         telnetState.setDoesBinary(false);
       }
@@ -6,6 +6,20 @@ public interface TelnetCommandProcessor {
 
   void processRecord(byte[] buffer, int length);
 
+  /**
+   * Processes a record which starts at {@code offset} of a buffer that is reused once this
+   * method returns. Implementations which keep any part of the record must copy it.
+   */
+  default void processRecord(byte[] buffer, int offset, int length) {
+    if (offset == 0) {
+      processRecord(buffer, length);
+    } else {
+      byte[] record = new byte[length];
+      System.arraycopy(buffer, offset, record, 0, length);
+      processRecord(record, length);
+    }
+  }
+
   void processTelnetCommand(byte[] buffer, int length);
 
   void processTelnetSubcommand(byte[] buffer, int length);
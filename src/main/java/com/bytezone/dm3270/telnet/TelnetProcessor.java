@@ -1,10 +1,16 @@
 package com.bytezone.dm3270.telnet;
 
+import java.util.Arrays;
+
 public class TelnetProcessor {
 
   // single-byte commands
   public static final byte EOR = (byte) 0xEF;   // End of record
 
+  public static final int DEFAULT_MAX_RECORD_SIZE = 1 << 20;
+
+  private static final int INITIAL_CAPACITY = 4096;
+
   // command prefix
   private static final byte IAC = (byte) 0xFF;
 
@@ -21,7 +27,8 @@ public class TelnetProcessor {
   private static final byte DONT = (byte) 0xFE;
 
   // state variables
-  private final byte[] data = new byte[16500];      // see also SessionReader
+  private byte[] data;                  // grows up to maxRecordSize
+  private final int maxRecordSize;
   private int dataPtr;
   private boolean pending;              // last byte was IAC, must check next byte
   private boolean weirdData;            // when stream starts with two IACs
@@ -31,84 +38,158 @@ public class TelnetProcessor {
   private final TelnetCommandProcessor commandProcessor;
 
   public TelnetProcessor(TelnetCommandProcessor commandProcessor) {
+    this(commandProcessor, DEFAULT_MAX_RECORD_SIZE);
+  }
+
+  /**
+   * Creates a processor which assembles records of up to {@code maxRecordSize} bytes.
+   * <p>
+   * Records which arrive in one piece are processed in place, and the buffer used to assemble
+   * the others starts small, grows as needed and is released once a big record is processed, so
+   * idle sessions don't hold on to the largest record they have seen.
+   */
+  public TelnetProcessor(TelnetCommandProcessor commandProcessor, int maxRecordSize) {
+    if (maxRecordSize <= 0) {
+      throw new IllegalArgumentException("Invalid maximum record size: " + maxRecordSize);
+    }
     this.commandProcessor = commandProcessor;
+    this.maxRecordSize = maxRecordSize;
+    data = new byte[Math.min(INITIAL_CAPACITY, maxRecordSize)];
   }
 
   public void listen(byte... buffer) {
-    for (byte thisByte : buffer) {
-      data[dataPtr++] = thisByte;           // store every byte we receive
-
-      if (thisByte == IAC) {
-        // previous byte might have been an IAC
-        if (pending) {
-          pending = false;                  // treat it as a data 0xFF
-          --dataPtr;                        // remove the second one
-          // if there is just that data 0xFF in the
-          if (dataPtr == 1) {
-            weirdData = true;               // buffer, then flag it
+    listen(buffer, 0, buffer.length);
+  }
+
+  /**
+   * Processes {@code length} bytes of {@code buffer} starting at {@code offset}.
+   * <p>
+   * Complete 3270 records without escaped 0xFF bytes are passed to the command processor in
+   * place, so the bytes are only copied to the internal buffer when a record is split across
+   * reads, contains a doubled IAC or is a telnet command. The command processor must not keep a
+   * reference to {@code buffer} after it returns, since the caller may reuse it.
+   */
+  public void listen(byte[] buffer, int offset, int length) {
+    int max = offset + length;
+    int ptr = offset;
+    while (ptr < max) {
+      if (dataPtr == 0 && !pending && command == 0 && buffer[ptr] != IAC) {
+        int recordEnd = findRecordEnd(buffer, ptr, max);
+        if (recordEnd > 0) {
+          if (recordEnd - ptr > maxRecordSize) {
+            throw recordTooLarge();
           }
-        } else {
-          pending = true;                   // this byte might be an IAC
+          commandProcessor.processRecord(buffer, ptr, recordEnd - ptr);
+          ptr = recordEnd;
+          continue;
         }
-        continue;
       }
+      process(buffer[ptr++]);
+    }
+  }
 
-      // previous byte really was an IAC
-      if (pending) {
-        pending = false;
+  // returns the position after the IAC/EOR ending the record, or -1 if the record is incomplete
+  // or the first IAC found is not followed by EOR
+  private static int findRecordEnd(byte[] buffer, int ptr, int max) {
+    for (int i = ptr; i < max - 1; i++) {
+      if (buffer[i] == IAC) {
+        return buffer[i + 1] == EOR ? i + 2 : -1;
+      }
+    }
+    return -1;
+  }
 
-        // first check for a valid 3270 data record
-        if (thisByte == EOR) {
-          commandProcessor.processRecord(data, dataPtr);
-          reset();
-          continue;
+  private void process(byte thisByte) {
+    if (dataPtr == data.length) {
+      grow();
+    }
+    data[dataPtr++] = thisByte;           // store every byte we receive
+
+    if (thisByte == IAC) {
+      // previous byte might have been an IAC
+      if (pending) {
+        pending = false;                  // treat it as a data 0xFF
+        --dataPtr;                        // remove the second one
+        // if there is just that data 0xFF in the
+        if (dataPtr == 1) {
+          weirdData = true;               // buffer, then flag it
         }
+      } else {
+        pending = true;                   // this byte might be an IAC
+      }
+      return;
+    }
 
-        // next remove any non-telnet data
-        // some non-telnet data is in the buffer
-        if (data[0] != IAC || weirdData) {
-          dataPtr -= 2;                     // hide IAC and this byte
-          commandProcessor.processData(data, dataPtr);
-          reset();
+    // previous byte really was an IAC
+    if (pending) {
+      pending = false;
 
-          data[dataPtr++] = IAC;            // drop through and process the new byte
-          data[dataPtr++] = thisByte;
-        }
+      // first check for a valid 3270 data record
+      if (thisByte == EOR) {
+        commandProcessor.processRecord(data, dataPtr);
+        reset();
+        return;
+      }
 
-        // leave IAC SB in buffer
-        if (thisByte == SB) {
-          continue;
-        }
+      // next remove any non-telnet data
+      // some non-telnet data is in the buffer
+      if (data[0] != IAC || weirdData) {
+        dataPtr -= 2;                     // hide IAC and this byte
+        commandProcessor.processData(data, dataPtr);
+        reset();
 
-        if (thisByte == SE) {
-          commandProcessor.processTelnetSubcommand(data, dataPtr);
-          reset();
-          continue;
-        }
+        data[dataPtr++] = IAC;            // drop through and process the new byte
+        data[dataPtr++] = thisByte;
+      }
 
-        // known three-byte commands
-        if (thisByte == DO || thisByte == DONT || thisByte == WILL | thisByte == WONT) {
-          command = thisByte;               // save it and wait for the third byte
-          continue;
-        }
+      // leave IAC SB in buffer
+      if (thisByte == SB) {
+        return;
+      }
 
-        // known two-byte commands
-        if (thisByte == NOP || thisByte == IP) {
-          commandProcessor.processTelnetCommand(data, dataPtr);
-          reset();
-          continue;
-        }
+      if (thisByte == SE) {
+        commandProcessor.processTelnetSubcommand(data, dataPtr);
+        reset();
+        return;
+      }
+
+      // known three-byte commands
+      if (thisByte == DO || thisByte == DONT || thisByte == WILL | thisByte == WONT) {
+        command = thisByte;               // save it and wait for the third byte
+        return;
+      }
 
-        System.err.printf("Unknown command: %02X%n", thisByte);   // handle error somehow
-        // the third byte has arrived (in thisByte)
-      } else if (command != 0) {
+      // known two-byte commands
+      if (thisByte == NOP || thisByte == IP) {
         commandProcessor.processTelnetCommand(data, dataPtr);
         reset();
+        return;
       }
+
+      System.err.printf("Unknown command: %02X%n", thisByte);   // handle error somehow
+      // the third byte has arrived (in thisByte)
+    } else if (command != 0) {
+      commandProcessor.processTelnetCommand(data, dataPtr);
+      reset();
     }
   }
 
+  private void grow() {
+    if (data.length >= maxRecordSize) {
+      throw recordTooLarge();
+    }
+    data = Arrays.copyOf(data, (int) Math.min(data.length * 2L, maxRecordSize));
+  }
+
+  private IllegalStateException recordTooLarge() {
+    return new IllegalStateException(
+        String.format("Record exceeds the maximum size of %,d bytes", maxRecordSize));
+  }
+
   private void reset() {
+    if (data.length > INITIAL_CAPACITY) {
+      data = new byte[INITIAL_CAPACITY];    // don't keep the buffer of a big record
+    }
     dataPtr = 0;
     command = 0;
     weirdData = false;
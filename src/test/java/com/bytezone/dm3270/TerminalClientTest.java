@@ -1,6 +1,7 @@
 package com.bytezone.dm3270;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.never;
@@ -11,9 +12,15 @@ import com.bytezone.dm3270.attributes.StartFieldAttribute;
 import com.bytezone.dm3270.commands.AIDCommand;
 import com.bytezone.dm3270.display.Field;
 import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.ScreenChangeEvent;
 import com.bytezone.dm3270.display.ScreenContext;
 import com.bytezone.dm3270.display.ScreenDimensions;
 import com.bytezone.dm3270.display.ScreenPosition;
+import com.bytezone.dm3270.display.ScreenSnapshot;
+import com.bytezone.dm3270.metrics.InMemoryMetrics;
+import com.bytezone.dm3270.metrics.ResponseTimes;
+import com.bytezone.dm3270.streams.InboundQueue;
+import com.bytezone.dm3270.streams.NioEventLoop;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 import java.awt.Point;
@@ -26,11 +33,15 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
@@ -58,6 +69,7 @@ public class TerminalClientTest {
   private static final int TERMINAL_MODEL_TYPE_THREE = 3;
   private static final ScreenDimensions SCREEN_DIMENSIONS = new ScreenDimensions(24, 80);
   private static final long TIMEOUT_MILLIS = 10000;
+  private static final long STABLE_PERIOD_MILLIS = 1000;
   private static final String SERVICE_HOST = "localhost";
   private static final String LOGIN_SPECIAL_CHARACTERS_FLOW = "/login-special-characters.yml";
   private static final String APP_NAME = "testapp";
@@ -138,6 +150,21 @@ public class TerminalClientTest {
     return client.getScreenText().replace('\u0000', ' ');
   }
 
+  // replaces the client connected by setup with one connected to the flow
+  private void reconnectWithFlow(String flow) throws Exception {
+    reconnectWithFlow(flow, newClient -> {
+    });
+  }
+
+  private void reconnectWithFlow(String flow, Consumer<TerminalClient> clientSetup)
+      throws Exception {
+    cleanShutdown();
+    startServiceWithFlow(flow);
+    client = new TerminalClient(TERMINAL_MODEL_TYPE_TWO, SCREEN_DIMENSIONS);
+    clientSetup.accept(client);
+    connectClient();
+  }
+
   private void startServiceWithFlow(String s) throws IOException {
     service.setFlow(Flow.fromYml(new File(getResourceFilePath(s))));
     service.start();
@@ -179,6 +206,61 @@ public class TerminalClientTest {
         Charsets.UTF_8);
   }
 
+  @Test
+  public void shouldGetWelcomeScreenFromSnapshotWhenConnect() throws Exception {
+    awaitKeyboardUnlock();
+    ScreenSnapshot snapshot = client.getScreenSnapshot();
+    assertThat(snapshot.getText().replace('\u0000', ' '))
+        .isEqualTo(getWelcomeScreen());
+    assertThat(snapshot.getFieldCount()).isEqualTo(client.getFields().size());
+    assertThat(snapshot.isKeyboardLocked()).isFalse();
+  }
+
+  @Test
+  public void shouldGetWelcomeScreenWhenAwaitKeyboardUnlock() throws Exception {
+    client.awaitKeyboardUnlock(STABLE_PERIOD_MILLIS, TIMEOUT_MILLIS).get();
+    assertThat(getScreenText())
+        .isEqualTo(getWelcomeScreen());
+  }
+
+  @Test
+  public void shouldGetWelcomeScreenWhenAwaitText() throws Exception {
+    client.awaitText("ENTER USERID", STABLE_PERIOD_MILLIS, TIMEOUT_MILLIS).get();
+    assertThat(getScreenText())
+        .isEqualTo(getWelcomeScreen());
+  }
+
+  @Test
+  public void shouldGetWelcomeScreenWhenAwaitScreenStable() throws Exception {
+    awaitKeyboardUnlock();
+    long start = System.nanoTime();
+    client.awaitScreenStable(STABLE_PERIOD_MILLIS, TIMEOUT_MILLIS).get();
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+        .isGreaterThanOrEqualTo(STABLE_PERIOD_MILLIS);
+    assertThat(getScreenText())
+        .isEqualTo(getWelcomeScreen());
+  }
+
+  @Test
+  public void shouldFailWithTimeoutExceptionWhenAwaitTextNotInScreen() throws Exception {
+    CompletableFuture<Void> wait = client.awaitText("NOT IN SCREEN", STABLE_PERIOD_MILLIS,
+        STABLE_PERIOD_MILLIS);
+    assertThatThrownBy(() -> wait.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(TimeoutException.class);
+  }
+
+  @Test
+  public void shouldFailWaitWhenServerClosesConnection() throws Exception {
+    awaitKeyboardUnlock();
+    CompletableFuture<Void> wait = client.awaitText("NOT IN SCREEN", STABLE_PERIOD_MILLIS,
+        TIMEOUT_MILLIS);
+    service.stop(TIMEOUT_MILLIS);
+    assertThatThrownBy(() -> wait.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(IllegalStateException.class);
+  }
+
   @Test
   public void shouldGetWelcomeScreenWithWrongCharset() throws Exception {
     setupExtendedFlow(TERMINAL_MODEL_TYPE_THREE, SCREEN_DIMENSIONS, LOGIN_SPECIAL_CHARACTERS_FLOW);
@@ -247,6 +329,147 @@ public class TerminalClientTest {
     return sslContext;
   }
 
+  @Test
+  public void shouldGetWelcomeScreenWhenConnectWithEventLoop() throws Exception {
+    try (NioEventLoop eventLoop = new NioEventLoop(1)) {
+      reconnectWithFlow("/login.yml", newClient -> newClient.setEventLoop(eventLoop));
+      awaitKeyboardUnlock();
+      assertThat(getScreenText())
+          .isEqualTo(getWelcomeScreen());
+    }
+  }
+
+  @Test
+  public void shouldNotifyConnectionClosedWhenEventLoopIsClosed() throws Exception {
+    exceptionWaiter = new ExceptionWaiter();
+    try (NioEventLoop eventLoop = new NioEventLoop(1)) {
+      reconnectWithFlow("/login.yml", newClient -> {
+        newClient.setEventLoop(eventLoop);
+        newClient.addConnectionListener(exceptionWaiter);
+      });
+      awaitKeyboardUnlock();
+      eventLoop.close();
+      exceptionWaiter.awaitClose();
+    }
+  }
+
+  @Test
+  public void shouldGetWelcomeScreenWhenConnectWithInboundQueue() throws Exception {
+    InboundQueue inboundQueue = new InboundQueue();
+    reconnectWithFlow("/login.yml", newClient -> newClient.setInboundQueue(inboundQueue));
+    awaitKeyboardUnlock();
+    assertThat(getScreenText())
+        .isEqualTo(getWelcomeScreen());
+    assertThat(inboundQueue.getProcessedCount()).isGreaterThan(0);
+  }
+
+  @Test
+  public void shouldRecordMetricsWhenSendUserField() throws Exception {
+    InMemoryMetrics metrics = new InMemoryMetrics();
+    reconnectWithFlow("/login.yml", newClient -> newClient.setMetrics(metrics));
+    awaitKeyboardUnlock();
+    sendUserFieldByCoord();
+    awaitKeyboardUnlock();
+    assertThat(metrics.getCounters()).containsKey("commands.Erase Write");
+    assertThat(metrics.getCounters().get("records")).isGreaterThan(0);
+    assertThat(metrics.getCounters().get("writes")).isGreaterThan(0);
+    assertThat(metrics.getWriteProcessing().getCount()).isGreaterThan(0);
+    assertThat(metrics.getScreenEncoding().getCount()).isGreaterThan(0);
+  }
+
+  @Test
+  public void shouldNotifyConnectionPhasesInOrderWhenLoginWithSscpLuData() throws Exception {
+    PhaseRecorder phaseRecorder = new PhaseRecorder();
+    reconnectWithFlow("/sscplu-login.yml", newClient -> {
+      newClient.setUsesExtended3270(true);
+      newClient.addConnectionListener(phaseRecorder);
+    });
+    awaitKeyboardUnlock();
+    sendFieldByCoord(11, 25, APP_NAME);
+    awaitKeyboardUnlock();
+    assertThat(phaseRecorder.phases).containsExactly(ConnectionPhase.CONNECTING,
+        ConnectionPhase.TCP_CONNECTED, ConnectionPhase.TN3270E_ACCEPTED,
+        ConnectionPhase.DEVICE_TYPE_ACCEPTED, ConnectionPhase.FUNCTIONS_ACCEPTED,
+        ConnectionPhase.FIRST_RECORD_RECEIVED, ConnectionPhase.KEYBOARD_UNLOCKED,
+        ConnectionPhase.BIND_RECEIVED);
+    assertThat(phaseRecorder.nanoTimes).isSorted();
+  }
+
+  private static class PhaseRecorder implements ConnectionListener {
+
+    private final List<ConnectionPhase> phases = new CopyOnWriteArrayList<>();
+    private final List<Long> nanoTimes = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void onConnection() {
+    }
+
+    @Override
+    public void onException(Exception ex) {
+    }
+
+    @Override
+    public void onConnectionClosed() {
+    }
+
+    @Override
+    public void onConnectionPhase(ConnectionPhase phase, long nanoTime) {
+      phases.add(phase);
+      nanoTimes.add(nanoTime);
+    }
+
+  }
+
+  @Test
+  public void shouldNotifyAddedFieldsWhenConnect() throws Exception {
+    List<ScreenChangeEvent> events = new CopyOnWriteArrayList<>();
+    reconnectWithFlow("/login.yml",
+        newClient -> newClient.addScreenChangeEventListener(events::add));
+    awaitKeyboardUnlock();
+    ScreenChangeEvent event = events.get(0);
+    assertThat(event.getAddedFields()).isEqualTo(client.getFields());
+    assertThat(event.getRemovedFields()).isEmpty();
+    assertThat(event.getFirstChangedRow()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldNotifyExceptionWhenRecordExceedsMaxRecordSize() throws Exception {
+    exceptionWaiter = new ExceptionWaiter();
+    reconnectWithFlow("/login.yml", newClient -> {
+      newClient.setMaxRecordSize(20);
+      newClient.addConnectionListener(exceptionWaiter);
+    });
+    exceptionWaiter.awaitException();
+  }
+
+  @Test
+  public void shouldGetWelcomeScreenWhenConnectWithEventLoopAndSsl() throws Exception {
+    cleanShutdown();
+    service.setSslEnabled(true);
+    System.setProperty("javax.net.ssl.keyStore", getResourceFilePath("/keystore.jks"));
+    System.setProperty("javax.net.ssl.keyStorePassword", "changeit");
+    service.start();
+    try (NioEventLoop eventLoop = new NioEventLoop(1)) {
+      client = new TerminalClient(TERMINAL_MODEL_TYPE_TWO, SCREEN_DIMENSIONS);
+      client.setEventLoop(eventLoop);
+      client.setSslContext(buildSslContext());
+      connectClient();
+      awaitKeyboardUnlock();
+      assertThat(getScreenText())
+          .isEqualTo(getWelcomeScreen());
+    }
+  }
+
+  @Test
+  public void shouldSendExceptionToExceptionHandlerWhenConnectWithEventLoopAndInvalidPort()
+      throws Exception {
+    try (NioEventLoop eventLoop = new NioEventLoop(1)) {
+      client.setEventLoop(eventLoop);
+      client.connect(SERVICE_HOST, 1);
+      exceptionWaiter.awaitException();
+    }
+  }
+
   @Test
   public void shouldGetWelcomeScreenWhenConnectWithScreenWithExtendFieldWithoutFieldAttribute()
       throws Exception {
@@ -259,6 +482,17 @@ public class TerminalClientTest {
         .isEqualTo(getWelcomeScreen());
   }
 
+  @Test
+  public void shouldRecordResponseTimeWhenSendUserFieldByCoord() throws Exception {
+    awaitKeyboardUnlock();
+    sendUserFieldByCoord();
+    awaitKeyboardUnlock();
+    ResponseTimes responseTimes = client.getResponseTimes();
+    assertThat(responseTimes.getResponseTime().getCount()).isEqualTo(1);
+    assertThat(responseTimes.getFirstByteTime().getValueAtPercentile(100))
+        .isLessThanOrEqualTo(responseTimes.getResponseTime().getValueAtPercentile(100));
+  }
+
   @Test
   public void shouldGetUserMenuScreenWhenSendUserFieldByCoord() throws Exception {
     awaitKeyboardUnlock();
@@ -0,0 +1,66 @@
+package com.bytezone.dm3270.buffers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  private static final int MIN_LENGTH = 1024;
+  private static final int MAX_LENGTH = 64 * 1024;
+  private static final int MAX_POOLED = 64;
+
+  private final BufferPool bufferPool = new BufferPool();
+
+  @Test
+  public void shouldGetArrayOfSizeClassWhenAcquire() {
+    assertThat(bufferPool.acquire(1).length).isEqualTo(MIN_LENGTH);
+    assertThat(bufferPool.acquire(MIN_LENGTH).length).isEqualTo(MIN_LENGTH);
+    assertThat(bufferPool.acquire(MIN_LENGTH + 1).length).isEqualTo(2 * MIN_LENGTH);
+    assertThat(bufferPool.acquire(MAX_LENGTH).length).isEqualTo(MAX_LENGTH);
+  }
+
+  @Test
+  public void shouldReuseReleasedArrayWhenAcquireSameSizeClass() {
+    byte[] buffer = bufferPool.acquire(1500);
+    bufferPool.release(buffer);
+    assertThat(bufferPool.acquire(2000)).isSameAs(buffer);
+  }
+
+  @Test
+  public void shouldNotReuseArrayWhenReleasedArrayIsNotFromPool() {
+    byte[] buffer = new byte[1500];
+    bufferPool.release(buffer);
+    assertThat(bufferPool.acquire(1500)).isNotSameAs(buffer);
+  }
+
+  @Test
+  public void shouldAllocateExactLengthWhenAcquireMoreThanMaxLength() {
+    byte[] buffer = bufferPool.acquire(MAX_LENGTH + 1);
+    assertThat(buffer.length).isEqualTo(MAX_LENGTH + 1);
+    bufferPool.release(buffer);
+    assertThat(bufferPool.acquire(MAX_LENGTH + 1)).isNotSameAs(buffer);
+  }
+
+  @Test
+  public void shouldKeepAtMostMaxPooledArraysWhenRelease() {
+    Set<byte[]> released = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int i = 0; i < MAX_POOLED + 1; i++) {
+      byte[] buffer = new byte[MIN_LENGTH];
+      released.add(buffer);
+      bufferPool.release(buffer);
+    }
+
+    int reused = 0;
+    for (int i = 0; i < MAX_POOLED + 1; i++) {
+      if (released.contains(bufferPool.acquire(MIN_LENGTH))) {
+        reused++;
+      }
+    }
+    assertThat(reused).isEqualTo(MAX_POOLED);
+  }
+
+}
@@ -0,0 +1,135 @@
+package com.bytezone.dm3270.display;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.attributes.ForegroundColor;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.streams.TelnetState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FieldManagerTest {
+
+  private static final byte PROTECTED = (byte) 0x60;
+  private static final byte UNPROTECTED = (byte) 0x40;
+  private static final byte RED = (byte) 0xF2;
+  private static final int FIRST_FIELD = 10;
+  private static final int SECOND_FIELD = 100;
+  private static final int THIRD_FIELD = 200;
+  private static final java.nio.charset.Charset EBCDIC =
+      java.nio.charset.Charset.forName(Charset.CP1047.name());
+
+  private Screen updatedScreen;
+  private Screen builtScreen;
+
+  @BeforeClass
+  public static void setupClass() {
+    Charset.CP1047.load();
+  }
+
+  @Before
+  public void setup() {
+    updatedScreen = buildScreen();
+    builtScreen = buildScreen();
+  }
+
+  private static Screen buildScreen() {
+    Screen screen = new Screen(new ScreenDimensions(24, 80), null, new TelnetState(),
+        Charset.CP1047);
+    screen.clearScreen(Screen.ScreenOption.DEFAULT);
+    return screen;
+  }
+
+  private static void writeFields(Pen pen) {
+    pen.moveTo(FIRST_FIELD);
+    pen.startField(new StartFieldAttribute(PROTECTED));
+    pen.moveRight();
+    writeText(pen, "USER");
+    // character attributes only apply to extended fields
+    StartFieldAttribute extendedField = new StartFieldAttribute(UNPROTECTED);
+    extendedField.setExtended();
+    pen.moveTo(SECOND_FIELD);
+    pen.startField(extendedField);
+    pen.moveRight();
+    writeText(pen, "NAME");
+    pen.moveTo(THIRD_FIELD);
+    pen.startField(new StartFieldAttribute(PROTECTED));
+    pen.moveRight();
+  }
+
+  private static void writeText(Pen pen, String text) {
+    for (byte value : text.getBytes(EBCDIC)) {
+      pen.write(value);
+    }
+  }
+
+  @Test
+  public void shouldGetSameFieldsAsFullBuildWhenWriteOnlyChangesTextOfFields() {
+    Consumer<Pen> write = pen -> {
+      pen.moveTo(SECOND_FIELD + 3);
+      pen.addAttribute(new ForegroundColor(RED));
+      writeText(pen, "XY");
+      pen.moveTo(FIRST_FIELD + 2);
+      writeText(pen, "Z");
+    };
+
+    writeFields(updatedScreen.getPen());
+    updatedScreen.buildFields();
+    write.accept(updatedScreen.getPen());
+    assertThat(updatedScreen.getPen().isFieldLayoutChanged()).isFalse();
+    updatedScreen.buildFields();
+
+    writeFields(builtScreen.getPen());
+    write.accept(builtScreen.getPen());
+    builtScreen.buildFields();
+
+    assertThat(describe(updatedScreen)).isEqualTo(describe(builtScreen));
+  }
+
+  @Test
+  public void shouldGetSameFieldsAsFullBuildWhenStartFieldIsOverwrittenByText() {
+    Consumer<Pen> write = pen -> {
+      pen.moveTo(SECOND_FIELD);
+      writeText(pen, "A");
+    };
+
+    writeFields(updatedScreen.getPen());
+    updatedScreen.buildFields();
+    int fields = updatedScreen.getFieldManager().size();
+    write.accept(updatedScreen.getPen());
+    updatedScreen.buildFields();
+
+    writeFields(builtScreen.getPen());
+    write.accept(builtScreen.getPen());
+    builtScreen.buildFields();
+
+    assertThat(updatedScreen.getFieldManager().size()).isEqualTo(fields - 1);
+    assertThat(describe(updatedScreen)).isEqualTo(describe(builtScreen));
+  }
+
+  private static List<String> describe(Screen screen) {
+    List<String> description = new ArrayList<>();
+    for (Field field : screen.getFieldManager().getFields()) {
+      description.add(String.format("field %d-%d, protected: %s, text: %s",
+          field.getStartPosition(), field.getEndPosition(), field.isProtected(),
+          field.getText()));
+    }
+    for (Field field : screen.getFieldManager().getUnprotectedFields()) {
+      description.add(String.format("unprotected %d, next: %d", field.getStartPosition(),
+          field.getNextUnprotectedField().getStartPosition()));
+    }
+    for (int i = 0; i < screen.getScreenDimensions().size; i++) {
+      ScreenContext context = screen.getScreenPosition(i).getScreenContext();
+      description.add(String.format("%d: %s/%s/%02X/%s/%s", i, context.foregroundColor,
+          context.backgroundColor, context.highlight, context.highIntensity,
+          context.isGraphic));
+    }
+    return description;
+  }
+
+}
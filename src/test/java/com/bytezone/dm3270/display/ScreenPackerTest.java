@@ -0,0 +1,219 @@
+package com.bytezone.dm3270.display;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.attributes.Attribute;
+import com.bytezone.dm3270.attributes.BackgroundColor;
+import com.bytezone.dm3270.attributes.ExtendedHighlight;
+import com.bytezone.dm3270.attributes.ForegroundColor;
+import com.bytezone.dm3270.attributes.ResetAttribute;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.buffers.Buffer;
+import com.bytezone.dm3270.commands.AIDCommand;
+import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.extended.CommandHeader;
+import com.bytezone.dm3270.extended.TN3270ExtendedCommand;
+import com.bytezone.dm3270.orders.Order;
+import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.streams.TerminalTransport;
+import com.bytezone.dm3270.structuredfields.SetReplyModeSF;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScreenPackerTest {
+
+  private static final byte[] ALL_REPLY_TYPES = {Attribute.XA_HIGHLIGHTING, Attribute.XA_FGCOLOR,
+      Attribute.XA_CHARSET, Attribute.XA_BGCOLOR};
+  private static final byte BLUE = (byte) 0xF1;
+  private static final byte RED = (byte) 0xF2;
+  private static final byte REVERSE = (byte) 0xF2;
+  private static final byte LETTER_A = (byte) 0xC1;
+  private static final byte APL_CHARSET = (byte) 0xF1;
+
+  private static final byte UNPROTECTED = (byte) 0x40;
+  private static final byte SSCP_LU_DATA = 0x07;
+
+  private final RecordingTransport transport = new RecordingTransport();
+  private TelnetState telnetState;
+  private Screen screen;
+  private Pen pen;
+
+  @Before
+  public void setup() {
+    telnetState = new TelnetState();
+    telnetState.setKeepAliveIntervalMillis(0);
+    telnetState.setTerminalServer(transport);
+    screen = new Screen(new ScreenDimensions(24, 80), null, telnetState, Charset.CP1047);
+    pen = screen.getPen();
+  }
+
+  private static class RecordingTransport implements TerminalTransport {
+
+    private byte[] written;
+
+    @Override
+    public void write(byte[] buffer) {
+      write(buffer, 0, buffer.length);
+    }
+
+    // the pooled buffer is reused once this returns
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+      written = Arrays.copyOfRange(buffer, offset, offset + length);
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+  @Test
+  public void shouldSendCharacterAttributesInTheOrderTheyWereSetWhenReadBuffer() {
+    pen.addAttribute(new ForegroundColor(BLUE));
+    pen.addAttribute(new ExtendedHighlight(REVERSE));
+    pen.addAttribute(new ForegroundColor(RED));
+    pen.write(LETTER_A);
+    screen.setReplyMode(SetReplyModeSF.RM_CHARACTER, ALL_REPLY_TYPES);
+
+    assertThat(getFirstPosition(screen.readBuffer(), 7)).containsExactly(
+        Order.SET_ATTRIBUTE, Attribute.XA_HIGHLIGHTING, REVERSE,
+        Order.SET_ATTRIBUTE, Attribute.XA_FGCOLOR, RED,
+        LETTER_A);
+  }
+
+  @Test
+  public void shouldSendCharsetValueWhenReadBuffer() {
+    byte charset = (byte) 0xF8;
+    pen.addAttribute(Attribute.getAttribute(Attribute.XA_CHARSET, charset).get());
+    pen.write(LETTER_A);
+    screen.setReplyMode(SetReplyModeSF.RM_CHARACTER, ALL_REPLY_TYPES);
+
+    assertThat(getFirstPosition(screen.readBuffer(), 4)).containsExactly(
+        Order.SET_ATTRIBUTE, Attribute.XA_CHARSET, charset, LETTER_A);
+  }
+
+  // every position with a reset, the four extended attributes and a graphic character
+  @Test
+  public void shouldPackEveryPositionWhenReadBufferOfFullyAttributedAlternateScreen() {
+    screen = new Screen(new ScreenDimensions(24, 80), new ScreenDimensions(27, 132), telnetState,
+        Charset.CP1047);
+    screen.clearScreen(Screen.ScreenOption.ALTERNATE);
+    pen = screen.getPen();
+    int size = screen.getScreenDimensions().size;
+    for (int i = 0; i < size; i++) {
+      pen.addAttribute(new ResetAttribute((byte) 0));
+      pen.addAttribute(new ForegroundColor(BLUE));
+      pen.addAttribute(new BackgroundColor(RED));
+      pen.addAttribute(new ExtendedHighlight(REVERSE));
+      pen.addAttribute(new com.bytezone.dm3270.attributes.Charset(APL_CHARSET));
+      pen.writeGraphics(LETTER_A);
+    }
+    screen.setReplyMode(SetReplyModeSF.RM_CHARACTER, ALL_REPLY_TYPES);
+
+    byte[] data = screen.readBuffer().getData();
+    int positionLength = 5 * 3 + 2;          // SA orders, GE and the character
+    assertThat(data.length).isEqualTo(3 + positionLength * size);
+    // the pooled buffer is rounded up, so check the requested length itself
+    ScreenPacker screenPacker = new ScreenPacker(pen, screen.getFieldManager(), Charset.CP1047);
+    screenPacker.setScreenDimensions(screen.getScreenDimensions());
+    assertThat(screenPacker.getReadBufferLength(SetReplyModeSF.RM_CHARACTER))
+        .isGreaterThanOrEqualTo(data.length);
+    assertThat(Arrays.copyOfRange(data, data.length - positionLength, data.length))
+        .containsExactly(Order.SET_ATTRIBUTE, Attribute.XA_RESET, (byte) 0,
+            Order.SET_ATTRIBUTE, Attribute.XA_FGCOLOR, BLUE,
+            Order.SET_ATTRIBUTE, Attribute.XA_BGCOLOR, RED,
+            Order.SET_ATTRIBUTE, Attribute.XA_HIGHLIGHTING, REVERSE,
+            Order.SET_ATTRIBUTE, Attribute.XA_CHARSET, APL_CHARSET,
+            Order.GRAPHICS_ESCAPE, LETTER_A);
+  }
+
+  @Test
+  public void shouldSendSameBytesAsReadModifiedFieldsWhenFieldDataContainsFF() {
+    writeModifiedField(LETTER_A, (byte) 0xFF, LETTER_A);
+    assertSendModifiedFieldsMatchesReadModifiedFields(AIDCommand.AID_ENTER);
+  }
+
+  @Test
+  public void shouldSendSameBytesAsReadModifiedFieldsWhenSequenceNumberContainsFF() {
+    telnetState.setDoes3270Extended(true);
+    for (int i = 0; i < 0xFF; i++) {
+      telnetState.nextCommandHeaderSeq();
+    }
+    writeModifiedField(LETTER_A, (byte) 0xFF);
+    assertSendModifiedFieldsMatchesReadModifiedFields(AIDCommand.AID_ENTER);
+  }
+
+  @Test
+  public void shouldSendSameBytesAsReadModifiedFieldsWhenSscpLuData() {
+    telnetState.setDoes3270Extended(true);
+    screen.setSscpLuData();
+    writeText(LETTER_A, (byte) 0xFF, LETTER_A);
+    assertSendModifiedFieldsMatchesReadModifiedFields(AIDCommand.AID_ENTER);
+  }
+
+  @Test
+  public void shouldSendSameBytesAsReadModifiedFieldsWhenPaKey() {
+    telnetState.setDoes3270Extended(true);
+    writeModifiedField(LETTER_A);
+    assertSendModifiedFieldsMatchesReadModifiedFields(AIDCommand.AID_PA1);
+  }
+
+  @Test
+  public void shouldSendSameBytesAsReadModifiedFieldsWhenClearKey() {
+    writeModifiedField(LETTER_A);
+    assertSendModifiedFieldsMatchesReadModifiedFields(AIDCommand.AID_CLEAR);
+  }
+
+  @Test
+  public void shouldSendSameBytesAsReadModifiedFieldsWhenUnformattedScreen() {
+    telnetState.setDoes3270Extended(true);
+    writeText(LETTER_A, (byte) 0xFF, LETTER_A);
+    assertSendModifiedFieldsMatchesReadModifiedFields(AIDCommand.AID_ENTER);
+  }
+
+  private void writeModifiedField(byte... text) {
+    pen.startField(new StartFieldAttribute(UNPROTECTED));
+    pen.moveRight();
+    writeText(text);
+    screen.getFieldManager().getFields().get(0).setModified(true);
+  }
+
+  private void writeText(byte... text) {
+    for (byte value : text) {
+      pen.write(value);
+    }
+    screen.buildFields();
+    pen.moveTo(0);
+  }
+
+  // sendModifiedFields encodes the reply that used to be sent as the telnet data of the command
+  // built by readModifiedFields, wrapped in a TN3270E command when the session uses it
+  private void assertSendModifiedFieldsMatchesReadModifiedFields(byte aid) {
+    screen.setAID(aid);
+    screen.sendModifiedFields();
+
+    Command command = screen.readModifiedFields();
+    byte[] expected;
+    if (telnetState.does3270Extended()) {
+      int sequence = telnetState.nextCommandHeaderSeq() - 1;     // the one the encoder took
+      byte[] header = new byte[5];
+      header[0] = screen.isSscpLuData() ? SSCP_LU_DATA : 0x00;
+      Buffer.packUnsignedShort(sequence, header, 3);
+      expected = new TN3270ExtendedCommand(new CommandHeader(header, Charset.CP1047), command,
+          telnetState, Charset.CP1047).getTelnetData();
+    } else {
+      expected = command.getTelnetData();
+    }
+    assertThat(transport.written).isEqualTo(expected);
+  }
+
+  // the bytes packed for the first position, after the AID and the cursor address
+  private static byte[] getFirstPosition(AIDCommand command, int length) {
+    byte[] data = command.getData();
+    return Arrays.copyOfRange(data, 3, 3 + length);
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.bytezone.dm3270.display;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.streams.TelnetState;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ScreenTest {
+
+  private static final byte PROTECTED_INTENSIFIED = (byte) 0xE8;
+  private static final byte LETTER_A = (byte) 0xC1;
+
+  private Screen screen;
+  private Pen pen;
+
+  @BeforeClass
+  public static void setupClass() {
+    Charset.CP1047.load();
+  }
+
+  @Before
+  public void setup() {
+    screen = new Screen(new ScreenDimensions(24, 80), new ScreenDimensions(27, 132),
+        new TelnetState(), Charset.CP1047);
+    screen.clearScreen(Screen.ScreenOption.DEFAULT);
+    pen = screen.getPen();
+  }
+
+  @Test
+  public void shouldGetDefaultContextsWhenSwitchScreenSize() {
+    pen.startField(new StartFieldAttribute(PROTECTED_INTENSIFIED));
+    screen.buildFields();
+    assertThat(screen.getScreenPosition(1).getScreenContext())
+        .isNotEqualTo(ScreenContext.DEFAULT_CONTEXT);
+
+    screen.clearScreen(Screen.ScreenOption.ALTERNATE);
+    for (int i = 0; i < screen.getScreenDimensions().size; i++) {
+      assertThat(screen.getScreenPosition(i).getScreenContext())
+          .isEqualTo(ScreenContext.DEFAULT_CONTEXT);
+    }
+  }
+
+  // a snapshot published between the buffer changing and the fields being built has the fields
+  // of the previous screen, so it must not match the built fields for the same generation
+  @Test
+  public void shouldNotMatchSnapshotWhenFieldMovedWithSameGeneration() {
+    pen.moveTo(10);
+    pen.startField(new StartFieldAttribute(PROTECTED_INTENSIFIED));
+    screen.buildFields();
+    screen.publishSnapshot();
+    ScreenSnapshot snapshot = screen.getSnapshot();
+
+    pen.moveTo(20);
+    pen.startField(new StartFieldAttribute(PROTECTED_INTENSIFIED));
+    pen.moveTo(10);
+    pen.write(LETTER_A);
+    screen.buildFields();
+
+    assertThat(screen.getFieldManager().size()).isEqualTo(snapshot.getFieldCount());
+    assertThat(snapshot.matches(snapshot.getGeneration(), screen.getScreenDimensions(),
+        screen.getFieldManager(), screen.getScreenCursor(), screen.isKeyboardLocked())).isFalse();
+  }
+
+}
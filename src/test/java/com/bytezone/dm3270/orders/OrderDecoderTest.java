@@ -0,0 +1,219 @@
+package com.bytezone.dm3270.orders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.Screen.ScreenOption;
+import com.bytezone.dm3270.display.ScreenContext;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.display.ScreenPosition;
+import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.telnet.TelnetCommandProcessor;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import us.abstracta.wiresham.Flow;
+import us.abstracta.wiresham.PacketStep;
+import us.abstracta.wiresham.ServerPacketStep;
+
+public class OrderDecoderTest {
+
+  private static final String[] FLOWS = {"attribute_not_present.yml",
+      "field_without_start_attribute.yml", "login-3270-empty-field.yml",
+      "login-3270-model-5.yml", "login-3278-M2-E.yml", "login-apl-charset-screen.yml",
+      "login-extended-field-without-field-attribute.yml", "login-immediate-responses.yml",
+      "login-special-characters.yml", "login-without-fields.yml", "login.yml",
+      "sscplu-login.yml", "test_capabilities.yml"};
+
+  // the server only starts the TN3270E subnegotiation if the client accepted TN3270E
+  private static final String TN3270E_SUBNEGOTIATION = "FFFA28";
+  private static final int TN3270E_HEADER_LENGTH = 5;
+  private static final byte TN3270_DATA = 0x00;
+  private static final int EOR_LENGTH = 2;
+
+  private Screen decodedScreen;
+  private Screen orderScreen;
+
+  @BeforeClass
+  public static void setupClass() throws IOException {
+    Charset.CP1047.load();
+  }
+
+  @Before
+  public void setup() {
+    decodedScreen = buildScreen();
+    orderScreen = buildScreen();
+  }
+
+  private static Screen buildScreen() {
+    return new Screen(new ScreenDimensions(24, 80), new ScreenDimensions(27, 132),
+        new TelnetState(), Charset.CP1047);
+  }
+
+  @Test
+  public void shouldGetSameScreenAsProcessingOrdersWhenDecodeRecordedFlows() throws Exception {
+    int writes = 0;
+    for (String flow : FLOWS) {
+      for (byte[] record : loadRecords(flow)) {
+        if (!isWrite(record[0])) {
+          continue;
+        }
+        writes++;
+        write(decodedScreen, record, true);
+        write(orderScreen, record, false);
+        assertThat(describe(decodedScreen)).as(flow).isEqualTo(describe(orderScreen));
+      }
+    }
+    assertThat(writes).isGreaterThan(FLOWS.length);
+  }
+
+  @Test
+  public void shouldThrowWhenOrderRunsPastTheEndOfTheRecord() {
+    byte[] buffer = {Command.WRITE_F1, (byte) 0xC3, Order.SET_BUFFER_ADDRESS, 0x40, 0x40};
+    assertThatThrownBy(() -> OrderDecoder.process(buffer, 2, buffer.length - 1, decodedScreen))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  public void shouldThrowWhenStartFieldExtendedPairsRunPastTheEndOfTheRecord() {
+    byte[] buffer = {Order.START_FIELD_EXTENDED, 0x02, (byte) 0xC0, 0x60, 0x41, (byte) 0xF1};
+    assertThatThrownBy(() -> OrderDecoder.process(buffer, 0, buffer.length - 1, decodedScreen))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static boolean isWrite(byte command) {
+    return command == Command.WRITE_01 || command == Command.WRITE_F1
+        || command == Command.ERASE_WRITE_05 || command == Command.ERASE_WRITE_F5
+        || command == Command.ERASE_WRITE_ALTERNATE_0D
+        || command == Command.ERASE_WRITE_ALTERNATE_7E;
+  }
+
+  // same as WriteCommand, with the orders applied by OrderDecoder or one Order at a time
+  private static void write(Screen screen, byte[] record, boolean decode) {
+    int cursorLocation = screen.getScreenCursor().getLocation();
+    byte command = record[0];
+    if (command != Command.WRITE_F1 && command != Command.WRITE_01) {
+      ScreenOption screenOption = command == Command.ERASE_WRITE_ALTERNATE_0D
+          || command == Command.ERASE_WRITE_ALTERNATE_7E ? ScreenOption.ALTERNATE
+          : ScreenOption.DEFAULT;
+      screen.clearScreen(screenOption);
+      screen.setCurrentScreen(screenOption);
+    }
+    if (decode) {
+      OrderDecoder.process(record, 2, record.length, screen);
+    } else {
+      Order previousOrder = null;
+      List<Order> orders = new ArrayList<>();
+      for (int ptr = 2; ptr < record.length; ) {
+        Order order = Order.getOrder(record, ptr, record.length, Charset.CP1047);
+        if (order.matchesPreviousOrder(previousOrder)) {
+          previousOrder.incrementDuplicates();
+        } else {
+          orders.add(order);
+          previousOrder = order;
+        }
+        ptr += order.size();
+      }
+      for (Order order : orders) {
+        order.process(screen);
+      }
+    }
+    screen.getScreenCursor().moveTo(cursorLocation);
+    screen.buildFields();
+    screen.draw();
+  }
+
+  private static List<String> describe(Screen screen) {
+    List<String> positions = new ArrayList<>();
+    positions.add("cursor: " + screen.getScreenCursor().getLocation() + ", pen: "
+        + screen.getPen().getPosition());
+    for (int i = 0; i < screen.getScreenDimensions().size; i++) {
+      ScreenPosition position = screen.getScreenPosition(i);
+      ScreenContext context = position.getScreenContext();
+      positions.add(String.format("%d: %s, graphic: %s, context: %s/%s/%02X/%s/%s", i, position,
+          position.isGraphic(), context.foregroundColor, context.backgroundColor,
+          context.highlight, context.highIntensity, context.isGraphic));
+    }
+    return positions;
+  }
+
+  // the 3270 data records sent by the server, without the TN3270E header and IAC/EOR
+  private static List<byte[]> loadRecords(String flow) throws IOException {
+    List<byte[]> packets = new ArrayList<>();
+    boolean extended = false;
+    try (InputStream in = OrderDecoderTest.class.getResourceAsStream("/" + flow)) {
+      for (PacketStep step : Flow.fromYmlStream(in).getSteps()) {
+        if (step instanceof ServerPacketStep) {
+          String data = step.getData().toUpperCase();
+          packets.add(hexToBytes(data));
+          extended |= containsBytes(data, TN3270E_SUBNEGOTIATION);
+        }
+      }
+    }
+
+    List<byte[]> records = new ArrayList<>();
+    int dataOffset = extended ? TN3270E_HEADER_LENGTH : 0;
+    TelnetProcessor telnetProcessor = new TelnetProcessor(new TelnetCommandProcessor() {
+
+      @Override
+      public void processData(byte[] buffer, int length) {
+      }
+
+      @Override
+      public void processRecord(byte[] buffer, int length) {
+        processRecord(buffer, 0, length);
+      }
+
+      @Override
+      public void processRecord(byte[] buffer, int offset, int length) {
+        if (dataOffset == 0 || buffer[offset] == TN3270_DATA) {
+          int recordLength = length - EOR_LENGTH - dataOffset;
+          if (recordLength > 0) {
+            byte[] record = new byte[recordLength];
+            System.arraycopy(buffer, offset + dataOffset, record, 0, recordLength);
+            records.add(record);
+          }
+        }
+      }
+
+      @Override
+      public void processTelnetCommand(byte[] buffer, int length) {
+      }
+
+      @Override
+      public void processTelnetSubcommand(byte[] buffer, int length) {
+      }
+
+    });
+    for (byte[] packet : packets) {
+      telnetProcessor.listen(packet);
+    }
+    return records;
+  }
+
+  private static boolean containsBytes(String hex, String bytes) {
+    for (int i = hex.indexOf(bytes); i >= 0; i = hex.indexOf(bytes, i + 1)) {
+      if (i % 2 == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static byte[] hexToBytes(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return bytes;
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.bytezone.dm3270.streams;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.streams.InboundQueue.OverflowPolicy;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InboundQueueTest {
+
+  private static final int CAPACITY = 4;
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  private final Queue<Runnable> pendingDrains = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger processed = new AtomicInteger();
+
+  private InboundQueue inboundQueue;
+
+  @Before
+  public void setup() {
+    // drains only run when the test asks for them
+    inboundQueue = new InboundQueue(CAPACITY, OverflowPolicy.BLOCK, pendingDrains::add);
+  }
+
+  private static class SharedReaderTransport implements TerminalTransport {
+
+    private boolean readSuspended;
+
+    @Override
+    public void write(byte[] buffer) {
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+    }
+
+    @Override
+    public boolean hasSharedReader() {
+      return true;
+    }
+
+    @Override
+    public void suspendReading() {
+      readSuspended = true;
+    }
+
+    @Override
+    public void resumeReading() {
+      readSuspended = false;
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+  private void submitRecords(int count) {
+    for (int i = 0; i < count; i++) {
+      inboundQueue.submit(processed::incrementAndGet);
+    }
+  }
+
+  private void runDrains() {
+    Runnable drain;
+    while ((drain = pendingDrains.poll()) != null) {
+      drain.run();
+    }
+  }
+
+  @Test
+  public void shouldSuspendReadingInsteadOfBlockingWhenQueueIsFullWithSharedReader() {
+    SharedReaderTransport transport = new SharedReaderTransport();
+    inboundQueue.setTransport(transport);
+    submitRecords(CAPACITY + 2);
+    assertThat(transport.readSuspended).isTrue();
+    assertThat(inboundQueue.getDepth()).isEqualTo(CAPACITY + 2);
+  }
+
+  @Test
+  public void shouldResumeReadingWhenQueueIsDrainedWithSharedReader() {
+    SharedReaderTransport transport = new SharedReaderTransport();
+    inboundQueue.setTransport(transport);
+    submitRecords(CAPACITY + 2);
+    runDrains();
+    assertThat(transport.readSuspended).isFalse();
+    assertThat(processed.get()).isEqualTo(CAPACITY + 2);
+  }
+
+  @Test
+  public void shouldWaitForRoomWhenQueueIsFullWithOwnReader() throws Exception {
+    submitRecords(CAPACITY);
+    CountDownLatch submitted = new CountDownLatch(1);
+    Thread reader = new Thread(() -> {
+      submitRecords(1);
+      submitted.countDown();
+    });
+    reader.start();
+    assertThat(submitted.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    runDrains();
+    assertThat(submitted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.bytezone.dm3270.streams;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.ConnectionPhase;
+import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.metrics.ConnectTimes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TelnetStateTest {
+
+  private static final long KEEP_ALIVE_INTERVAL_MILLIS = 50;
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  private final ScheduledThreadPoolExecutor keepAliveExecutor = new ScheduledThreadPoolExecutor(1);
+  private final RecordingTransport transport = new RecordingTransport();
+  private TelnetState telnetState;
+
+  @Before
+  public void setup() {
+    keepAliveExecutor.setRemoveOnCancelPolicy(true);
+    telnetState = new TelnetState();
+    telnetState.setKeepAliveExecutor(keepAliveExecutor);
+    telnetState.setKeepAliveIntervalMillis(KEEP_ALIVE_INTERVAL_MILLIS);
+  }
+
+  @After
+  public void teardown() {
+    keepAliveExecutor.shutdownNow();
+  }
+
+  private static class RecordingTransport implements TerminalTransport {
+
+    private final AtomicInteger keepAlives = new AtomicInteger();
+    private final CountDownLatch keepAliveLatch = new CountDownLatch(1);
+
+    @Override
+    public void write(byte[] buffer) {
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+    }
+
+    @Override
+    public void sendKeepAlive() {
+      keepAlives.incrementAndGet();
+      keepAliveLatch.countDown();
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+  @Test
+  public void shouldSendKeepAliveWhenConnectionIsIdle() throws Exception {
+    telnetState.setTerminalServer(transport);
+    assertThat(transport.keepAliveLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+  }
+
+  @Test
+  public void shouldStopKeepAliveWhenConnectionIsClosed() throws Exception {
+    Screen screen = new Screen(new ScreenDimensions(24, 80), null, telnetState, Charset.CP1047);
+    TelnetListener telnetListener = new TelnetListener(screen, telnetState);
+    telnetState.setTerminalServer(transport);
+    assertThat(transport.keepAliveLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+
+    telnetListener.close();
+    Thread.sleep(KEEP_ALIVE_INTERVAL_MILLIS);          // lets a keep-alive already running end
+    int keepAlives = transport.keepAlives.get();
+    Thread.sleep(KEEP_ALIVE_INTERVAL_MILLIS * 4);
+    assertThat(transport.keepAlives.get()).isEqualTo(keepAlives);
+    assertThat(keepAliveExecutor.getQueue()).isEmpty();
+  }
+
+  @Test
+  public void shouldRecordConnectTimesOnceWhenPhasesAreReached() {
+    telnetState.phaseReached(ConnectionPhase.CONNECTING);
+    telnetState.phaseReached(ConnectionPhase.TCP_CONNECTED);
+    telnetState.phaseReached(ConnectionPhase.FIRST_RECORD_RECEIVED);
+    telnetState.phaseReached(ConnectionPhase.KEYBOARD_UNLOCKED);
+    telnetState.phaseReached(ConnectionPhase.FIRST_RECORD_RECEIVED);
+    telnetState.phaseReached(ConnectionPhase.KEYBOARD_UNLOCKED);
+
+    ConnectTimes connectTimes = telnetState.getConnectTimes();
+    assertThat(connectTimes.getTcpConnectTime().getCount()).isEqualTo(1);
+    assertThat(connectTimes.getTlsHandshakeTime().getCount()).isEqualTo(0);
+    assertThat(connectTimes.getNegotiationTime().getCount()).isEqualTo(1);
+    assertThat(connectTimes.getFirstScreenTime().getCount()).isEqualTo(1);
+    assertThat(connectTimes.getTotalTime().getCount()).isEqualTo(1);
+  }
+
+}
@@ -0,0 +1,203 @@
+package com.bytezone.dm3270.streams;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.ConnectionListener;
+import java.io.DataInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.net.SocketFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TerminalServerTest {
+
+  private static final long TIMEOUT_MILLIS = 5000;
+  private static final byte[] DO_OPTIONS = {(byte) 0xFF, (byte) 0xFD, 0x18, (byte) 0xFF,
+      (byte) 0xFD, 0x19, (byte) 0xFF, (byte) 0xFD, 0x00};
+  private static final byte[][] WILL_OPTIONS = {{(byte) 0xFF, (byte) 0xFB, 0x18},
+      {(byte) 0xFF, (byte) 0xFB, 0x19}, {(byte) 0xFF, (byte) 0xFB, 0x00}};
+
+  private final List<byte[]> socketWrites = new ArrayList<>();
+  private final CountDownLatch connected = new CountDownLatch(1);
+  private ServerSocket server;
+  private Socket serverConnection;
+  private Socket clientSocket;
+  private TerminalServer terminalServer;
+
+  @Before
+  public void setup() throws IOException {
+    server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    terminalServer = new TerminalServer(InetAddress.getLoopbackAddress().getHostAddress(),
+        server.getLocalPort(), new RecordingSocketFactory(), new ReplyingListener());
+    terminalServer.setConnectionListener(new LatchConnectionListener());
+  }
+
+  @After
+  public void teardown() throws IOException {
+    terminalServer.close();
+    if (serverConnection != null) {
+      serverConnection.close();
+    }
+    server.close();
+  }
+
+  // every write that reaches the socket, which the buffered stream only does when flushed
+  private class RecordingSocketFactory extends SocketFactory {
+
+    @Override
+    public Socket createSocket() {
+      clientSocket = new Socket() {
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+          return new FilterOutputStream(super.getOutputStream()) {
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+              synchronized (socketWrites) {
+                socketWrites.add(Arrays.copyOfRange(buffer, offset, offset + length));
+              }
+              out.write(buffer, offset, length);
+            }
+
+          };
+        }
+
+      };
+      return clientSocket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+        int localPort) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+  // answers every option the server asks for, one write at a time like the telnet commands do
+  private class ReplyingListener implements BufferListener {
+
+    @Override
+    public void listen(TelnetSocket.Source targetRole, byte[] message, LocalDateTime dateTime,
+        boolean genuine) {
+      for (byte[] reply : WILL_OPTIONS) {
+        terminalServer.write(reply);
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+
+  }
+
+  private class LatchConnectionListener implements ConnectionListener {
+
+    @Override
+    public void onConnection() {
+      connected.countDown();
+    }
+
+    @Override
+    public void onException(Exception ex) {
+    }
+
+    @Override
+    public void onConnectionClosed() {
+    }
+
+  }
+
+  private void connect() throws Exception {
+    new Thread(terminalServer).start();
+    serverConnection = server.accept();
+    serverConnection.setSoTimeout((int) TIMEOUT_MILLIS);
+    assertThat(connected.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+  }
+
+  private byte[] readFromClient(int length) throws IOException {
+    byte[] data = new byte[length];
+    new DataInputStream(serverConnection.getInputStream()).readFully(data);
+    return data;
+  }
+
+  private List<byte[]> getSocketWrites() {
+    synchronized (socketWrites) {
+      return new ArrayList<>(socketWrites);
+    }
+  }
+
+  @Test
+  public void shouldSendRepliesInOneSocketWriteWhenWrittenWhileProcessingRead()
+      throws Exception {
+    connect();
+    serverConnection.getOutputStream().write(DO_OPTIONS);
+
+    byte[] replies = readFromClient(DO_OPTIONS.length);
+    assertThat(replies).isEqualTo(concat(WILL_OPTIONS));
+    assertThat(getSocketWrites()).containsExactly(replies);
+  }
+
+  @Test
+  public void shouldSendWriteRightAwayWhenWrittenFromOtherThread() throws Exception {
+    connect();
+    byte[] data = WILL_OPTIONS[0];
+    terminalServer.write(data);
+
+    // the reader thread is blocked reading, so the write must not wait for it to flush
+    assertThat(getSocketWrites()).containsExactly(data);
+    assertThat(readFromClient(data.length)).isEqualTo(data);
+  }
+
+  @Test
+  public void shouldDisableNagleAlgorithmByDefault() throws Exception {
+    connect();
+    assertThat(clientSocket.getTcpNoDelay()).isTrue();
+  }
+
+  @Test
+  public void shouldEnableNagleAlgorithmWhenTcpNoDelayIsDisabled() throws Exception {
+    terminalServer.setTcpNoDelay(false);
+    connect();
+    assertThat(clientSocket.getTcpNoDelay()).isFalse();
+  }
+
+  private static byte[] concat(byte[]... arrays) {
+    byte[] result = new byte[Arrays.stream(arrays).mapToInt(array -> array.length).sum()];
+    int offset = 0;
+    for (byte[] array : arrays) {
+      System.arraycopy(array, 0, result, offset, array.length);
+      offset += array.length;
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.bytezone.dm3270.telnet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.Charset;
+import com.bytezone.dm3270.buffers.Buffer;
+import com.bytezone.dm3270.display.Screen;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.streams.TelnetState;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TN3270ExtendedSubcommandTest {
+
+  private static final byte IAC = TelnetCommand.IAC;
+  private static final byte SB = TelnetCommand.SB;
+  private static final byte SE = TelnetCommand.SE;
+  private static final byte TN3270E = TelnetSubcommand.TN3270E;
+  private static final byte DEVICE_TYPE = 2;
+  private static final byte FUNCTIONS = 3;
+  private static final byte IS = 4;
+  private static final byte REQUEST = 7;
+  private static final byte SEND = 8;
+
+  private static final byte[] SEND_DEVICE_TYPE = {IAC, SB, TN3270E, SEND, DEVICE_TYPE, IAC, SE};
+  private static final byte[] FUNCTIONS_REQUEST =
+      {IAC, SB, TN3270E, FUNCTIONS, REQUEST, 0x00, 0x02, 0x04, IAC, SE};
+  private static final byte[] FUNCTIONS_IS =
+      {IAC, SB, TN3270E, FUNCTIONS, IS, 0x00, 0x02, 0x04, IAC, SE};
+
+  private TelnetState telnetState;
+  private Screen screen;
+
+  @Before
+  public void setup() {
+    telnetState = new TelnetState();
+    screen = new Screen(new ScreenDimensions(24, 80), null, telnetState, Charset.CP1047);
+  }
+
+  private Optional<byte[]> process(byte[] buffer) {
+    TN3270ExtendedSubcommand subcommand =
+        new TN3270ExtendedSubcommand(buffer, 0, buffer.length, telnetState);
+    subcommand.process(screen);
+    return subcommand.getReply().map(Buffer::getTelnetData);
+  }
+
+  private byte[] getDeviceTypeRequest() {
+    return buildDeviceType(REQUEST, telnetState.doDeviceType());
+  }
+
+  private static byte[] buildDeviceType(byte subType, String deviceType) {
+    byte[] type = deviceType.getBytes(StandardCharsets.US_ASCII);
+    byte[] buffer = new byte[type.length + 7];
+    System.arraycopy(new byte[]{IAC, SB, TN3270E, DEVICE_TYPE, subType}, 0, buffer, 0, 5);
+    System.arraycopy(type, 0, buffer, 5, type.length);
+    buffer[buffer.length - 2] = IAC;
+    buffer[buffer.length - 1] = SE;
+    return buffer;
+  }
+
+  private static byte[] concat(byte[] first, byte[] second) {
+    byte[] buffer = new byte[first.length + second.length];
+    System.arraycopy(first, 0, buffer, 0, first.length);
+    System.arraycopy(second, 0, buffer, first.length, second.length);
+    return buffer;
+  }
+
+  @Test
+  public void shouldRequestDeviceTypeAndFunctionsWhenOptimisticNegotiation() {
+    telnetState.setDoOptimisticNegotiation(true);
+    assertThat(process(SEND_DEVICE_TYPE)).hasValueSatisfying(reply -> assertThat(reply)
+        .isEqualTo(concat(getDeviceTypeRequest(), FUNCTIONS_REQUEST)));
+  }
+
+  @Test
+  public void shouldNotRequestFunctionsAgainWhenDeviceTypeIsAssignedWithOptimisticNegotiation() {
+    telnetState.setDoOptimisticNegotiation(true);
+    process(SEND_DEVICE_TYPE);
+    assertThat(process(buildDeviceType(IS, telnetState.doDeviceType()))).isEmpty();
+    assertThat(process(FUNCTIONS_IS)).isEmpty();
+  }
+
+  @Test
+  public void shouldRequestFunctionsWhenDeviceTypeIsAssignedWithoutOptimisticNegotiation() {
+    assertThat(process(SEND_DEVICE_TYPE)).hasValueSatisfying(reply -> assertThat(reply)
+        .isEqualTo(getDeviceTypeRequest()));
+    assertThat(process(buildDeviceType(IS, telnetState.doDeviceType())))
+        .hasValueSatisfying(reply -> assertThat(reply).isEqualTo(FUNCTIONS_REQUEST));
+  }
+
+  @Test
+  public void shouldRequestFunctionsOnNextDeviceTypeAssignmentWithOptimisticNegotiation() {
+    telnetState.setDoOptimisticNegotiation(true);
+    process(SEND_DEVICE_TYPE);
+    process(buildDeviceType(IS, telnetState.doDeviceType()));
+    assertThat(process(buildDeviceType(IS, telnetState.doDeviceType())))
+        .hasValueSatisfying(reply -> assertThat(reply).isEqualTo(FUNCTIONS_REQUEST));
+  }
+
+}
@@ -0,0 +1,138 @@
+package com.bytezone.dm3270.telnet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.bytezone.dm3270.ConnectionListener;
+import com.bytezone.dm3270.ConnectionPhase;
+import com.bytezone.dm3270.buffers.Buffer;
+import com.bytezone.dm3270.streams.TelnetState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TelnetCommandTest {
+
+  private static final byte IAC = TelnetCommand.IAC;
+  private static final byte DONT = (byte) 0xFE;
+  private static final byte DO = (byte) 0xFD;
+  private static final byte WONT = (byte) 0xFC;
+  private static final byte WILL = (byte) 0xFB;
+
+  private TelnetState telnetState;
+
+  @Before
+  public void setup() {
+    telnetState = new TelnetState();
+    telnetState.setDoOptimisticNegotiation(true);
+  }
+
+  private Optional<byte[]> process(byte command, byte option) {
+    TelnetCommand telnetCommand =
+        new TelnetCommand(telnetState, new byte[]{IAC, command, option}, 3);
+    telnetCommand.process(null);
+    return telnetCommand.getReply().map(Buffer::getTelnetData);
+  }
+
+  @Test
+  public void shouldOfferOnlyTn3270eWhenOptimisticNegotiation() {
+    assertThat(TelnetCommand.getOptimisticOffers(telnetState))
+        .containsExactly(IAC, WILL, TelnetSubcommand.TN3270E);
+  }
+
+  @Test
+  public void shouldNotReplyWhenServerAgreesToPendingOffer() {
+    TelnetCommand.getOptimisticOffers(telnetState);
+    assertThat(process(DO, TelnetSubcommand.TN3270E)).isEmpty();
+    assertThat(telnetState.does3270Extended()).isTrue();
+  }
+
+  @Test
+  public void shouldReplyWhenServerAsksForOptionAgainAfterAgreeingToOffer() {
+    TelnetCommand.getOptimisticOffers(telnetState);
+    process(DO, TelnetSubcommand.TN3270E);
+    assertThat(process(DO, TelnetSubcommand.TN3270E))
+        .hasValueSatisfying(reply -> assertThat(reply)
+            .containsExactly(IAC, WILL, TelnetSubcommand.TN3270E));
+  }
+
+  @Test
+  public void shouldNegotiateAsUsualWhenServerRefusesOffer() {
+    TelnetCommand.getOptimisticOffers(telnetState);
+    assertThat(process(DONT, TelnetSubcommand.TN3270E)).isEmpty();
+    assertThat(telnetState.does3270Extended()).isFalse();
+
+    assertThat(process(DO, TelnetSubcommand.TERMINAL_TYPE))
+        .hasValueSatisfying(reply -> assertThat(reply)
+            .containsExactly(IAC, WILL, TelnetSubcommand.TERMINAL_TYPE));
+    assertThat(process(DO, TelnetSubcommand.EOR))
+        .hasValueSatisfying(reply -> assertThat(reply)
+            .containsExactly(IAC, WILL, TelnetSubcommand.EOR));
+    assertThat(process(WILL, TelnetSubcommand.EOR))
+        .hasValueSatisfying(reply -> assertThat(reply)
+            .containsExactly(IAC, DO, TelnetSubcommand.EOR));
+  }
+
+  @Test
+  public void shouldNegotiateAsUsualWhenServerRefusesOfferedDo() {
+    telnetState.setDo3270Extended(false);
+    TelnetCommand.getOptimisticOffers(telnetState);
+    assertThat(process(WONT, TelnetSubcommand.BINARY)).isEmpty();
+    assertThat(telnetState.doesBinary()).isFalse();
+
+    assertThat(process(DO, TelnetSubcommand.BINARY)).isEmpty();
+    assertThat(process(WILL, TelnetSubcommand.BINARY))
+        .hasValueSatisfying(reply -> assertThat(reply)
+            .containsExactly(IAC, DO, TelnetSubcommand.BINARY));
+  }
+
+  @Test
+  public void shouldReplyToServerDoWhenItComesWithAnswerToOffer() {
+    TelnetCommand.getOptimisticOffers(telnetState);
+    assertThat(process(DO, TelnetSubcommand.TERMINAL_TYPE))
+        .hasValueSatisfying(reply -> assertThat(reply)
+            .containsExactly(IAC, WILL, TelnetSubcommand.TERMINAL_TYPE));
+    assertThat(process(DO, TelnetSubcommand.TN3270E)).isEmpty();
+  }
+
+  @Test
+  public void shouldNotReplyWhenServerAgreesToBothOffersOfAnOption() {
+    telnetState.setDo3270Extended(false);
+    TelnetCommand.getOptimisticOffers(telnetState);
+    assertThat(process(DO, TelnetSubcommand.EOR)).isEmpty();
+    assertThat(process(WILL, TelnetSubcommand.EOR)).isEmpty();
+    assertThat(telnetState.doesEOR()).isTrue();
+  }
+
+  @Test
+  public void shouldNotAcceptTn3270eWhenRefusingServerWill() {
+    List<ConnectionPhase> phases = new ArrayList<>();
+    telnetState.setConnectionListener(new ConnectionListener() {
+
+      @Override
+      public void onConnection() {
+      }
+
+      @Override
+      public void onException(Exception ex) {
+      }
+
+      @Override
+      public void onConnectionClosed() {
+      }
+
+      @Override
+      public void onConnectionPhase(ConnectionPhase phase, long nanoTime) {
+        phases.add(phase);
+      }
+
+    });
+    assertThat(process(WILL, TelnetSubcommand.TN3270E))
+        .hasValueSatisfying(reply -> assertThat(reply)
+            .containsExactly(IAC, DONT, TelnetSubcommand.TN3270E));
+    assertThat(telnetState.does3270Extended()).isFalse();
+    assertThat(phases).doesNotContain(ConnectionPhase.TN3270E_ACCEPTED);
+  }
+
+}